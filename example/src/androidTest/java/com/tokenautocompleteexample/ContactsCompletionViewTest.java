@@ -1,5 +1,9 @@
 package com.tokenautocompleteexample;
 
+import android.text.Editable;
+import android.view.View;
+import android.widget.TextView;
+
 import androidx.test.rule.ActivityTestRule;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
@@ -7,6 +11,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import com.tokenautocomplete.TokenCompleteTextView;
+
+import kotlin.jvm.functions.Function1;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static androidx.test.espresso.Espresso.onView;
 import static androidx.test.espresso.action.ViewActions.typeText;
 import static androidx.test.espresso.assertion.ViewAssertions.matches;
@@ -18,6 +30,9 @@ import static com.tokenautocompleteexample.TokenMatchers.tokenCount;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Instrumentation test, which will execute on an Android device.
@@ -129,6 +144,269 @@ public class ContactsCompletionViewTest {
                 .check(matches(withText(containsString("+"))));
     }
 
+    @Test
+    public void addsObjectsInOneBatch() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+
+        final TestBatchTokenListener listener = new TestBatchTokenListener();
+        completionView.setTokenListener(listener);
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                completionView.addObjectsSync(Arrays.asList(people));
+                assertEquals(Arrays.asList(people), completionView.getObjects());
+                assertEquals(Collections.singletonList(Arrays.asList(people)), listener.addedBatches);
+                //Batch listeners are not also told about each token
+                assertEquals(0, listener.added.size());
+            }
+        });
+
+        onView(withId(R.id.searchView))
+                .check(matches(tokenCount(is(people.length))));
+    }
+
+    @Test
+    public void addsObjectsOneByOneForPlainListeners() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+
+        final TestTokenListener listener = new TestTokenListener();
+        completionView.setTokenListener(listener);
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                completionView.addObjectsSync(Arrays.asList(people));
+                assertEquals(Arrays.asList(people), completionView.getObjects());
+                assertEquals(Arrays.asList(people), listener.added);
+            }
+        });
+    }
+
+    @Test
+    public void addsObjectsSkippingIgnoredAndOverLimit() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+        completionView.setPersonToIgnore(people[1]);
+        completionView.setTokenLimit(3);
+
+        final TestBatchTokenListener listener = new TestBatchTokenListener();
+        completionView.setTokenListener(listener);
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                completionView.addObjectsSync(Arrays.asList(people));
+                List<Person> expected = Arrays.asList(people[0], people[2], people[3]);
+                assertEquals(expected, completionView.getObjects());
+                assertEquals(Collections.singletonList(expected), listener.addedBatches);
+                assertEquals(Collections.singletonList(people[1]), listener.ignored);
+
+                //Nothing is reported once the limit is reached
+                completionView.addObjectsSync(Arrays.asList(people[4], people[5]));
+                assertEquals(3, completionView.getObjects().size());
+                assertEquals(1, listener.addedBatches.size());
+            }
+        });
+    }
+
+    @Test
+    public void addsObjectsWithOneCollapse() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+        completionView.allowCollapse(true);
+
+        final TestBatchTokenListener listener = new TestBatchTokenListener();
+        completionView.setTokenListener(listener);
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                //Tokens only collapse when the view doesn't have focus
+                activityRule.getActivity().findViewById(R.id.editText).requestFocus();
+                completionView.collapseCount = 0;
+                completionView.addObjectsSync(Arrays.asList(people));
+                assertEquals(1, completionView.collapseCount);
+                assertEquals(people.length, completionView.getObjects().size());
+            }
+        });
+
+        onView(withId(R.id.searchView))
+                //The +count text is included
+                .check(matches(withText(containsString("+"))))
+                .check(matches(tokenCount(is(people.length))));
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                //Already collapsed, so the tokens go to the hidden content
+                completionView.addObjectsSync(Arrays.asList(people[0], people[1]));
+                assertEquals(1, completionView.collapseCount);
+                assertEquals(people.length + 2, completionView.getObjects().size());
+                assertEquals(people[1], completionView.getObjects().get(people.length + 1));
+                assertEquals(Arrays.asList(people[0], people[1]), listener.addedBatches.get(1));
+            }
+        });
+
+        onView(withId(R.id.searchView))
+                .check(matches(withText(containsString("+"))))
+                .check(matches(tokenCount(is(people.length + 2))));
+    }
+
+    @Test
+    public void removesObjectsInOneBatch() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+
+        final TestBatchTokenListener listener = new TestBatchTokenListener();
+        completionView.setTokenListener(listener);
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                completionView.addObjectsSync(Arrays.asList(people));
+                completionView.removeObjectsSync(Arrays.asList(people[4], people[1]));
+                assertEquals(Arrays.asList(people[0], people[2], people[3], people[5], people[6]),
+                        completionView.getObjects());
+                //Removed tokens are reported in the order they were displayed
+                assertEquals(Collections.singletonList(Arrays.asList(people[1], people[4])),
+                        listener.removedBatches);
+                //Batch listeners are not also told about each token
+                assertEquals(0, listener.removed.size());
+
+                completionView.removeObjectsSync(Collections.singletonList(people[1]));
+                assertEquals(1, listener.removedBatches.size());
+            }
+        });
+
+        onView(withId(R.id.searchView))
+                .check(matches(tokenCount(is(people.length - 2))));
+    }
+
+    @Test
+    public void removesObjectsOneByOneForPlainListeners() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+
+        final TestTokenListener listener = new TestTokenListener();
+        completionView.setTokenListener(listener);
+
+        final Function1<Person, Boolean> emailStartsWithMa = new Function1<Person, Boolean>() {
+            @Override
+            public Boolean invoke(Person person) {
+                return person.getEmail().startsWith("ma");
+            }
+        };
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                completionView.addObjectsSync(Arrays.asList(people));
+                assertTrue(completionView.removeIf(emailStartsWithMa));
+                assertEquals(Arrays.asList(people[3], people[4], people[5], people[6]),
+                        completionView.getObjects());
+                assertEquals(Arrays.asList(people[0], people[1], people[2]), listener.removed);
+
+                assertFalse(completionView.removeIf(emailStartsWithMa));
+                assertEquals(3, listener.removed.size());
+            }
+        });
+    }
+
+    @Test
+    public void removesObjectsFromCollapsedContent() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+        completionView.allowCollapse(true);
+
+        final TestBatchTokenListener listener = new TestBatchTokenListener();
+        completionView.setTokenListener(listener);
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                //Tokens only collapse when the view doesn't have focus
+                activityRule.getActivity().findViewById(R.id.editText).requestFocus();
+                completionView.addObjectsSync(Arrays.asList(people));
+                completionView.removeObjectsSync(Arrays.asList(people[6], people[0]));
+                assertEquals(people.length - 2, completionView.getObjects().size());
+                assertEquals(people[1], completionView.getObjects().get(0));
+                assertEquals(Collections.singletonList(Arrays.asList(people[0], people[6])),
+                        listener.removedBatches);
+            }
+        });
+
+        onView(withId(R.id.searchView))
+                .check(matches(tokenCount(is(people.length - 2))));
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                completionView.clearSync();
+                assertEquals(0, completionView.getObjects().size());
+                assertEquals(Arrays.asList(people[1], people[2], people[3], people[4], people[5]),
+                        listener.removedBatches.get(1));
+                assertEquals(0, listener.removed.size());
+            }
+        });
+
+        onView(withId(R.id.searchView))
+                .check(matches(tokenCount(is(0))))
+                //The text should also reset completely
+                .check(matches(withText(String.format("To: %s", completionView.getHint()))));
+    }
+
+    @Test
+    public void recreatesReleasedTokenViews() {
+        final Person[] people = Person.samplePeople();
+        final ContactsCompletionView completionView = activityRule.getActivity().completionView;
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                //Keep a single line inside the scroll window, with every token in the text
+                completionView.setMaxLines(1);
+                completionView.allowCollapse(false);
+                completionView.setTokenVirtualization(true);
+                for (int i = 0; i < 3; i++) {
+                    completionView.addObjectsSync(Arrays.asList(people));
+                }
+            }
+        });
+
+        //Views of tokens outside the scroll window are released once the field is drawn
+        onView(withId(R.id.searchView))
+                .check(matches(tokenCount(is(3 * people.length))));
+
+        activityRule.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Editable text = completionView.getText();
+                TokenCompleteTextView.TokenImageSpan released = null;
+                for (TokenCompleteTextView.TokenImageSpan span:
+                        text.getSpans(0, text.length(), TokenCompleteTextView.TokenImageSpan.class)) {
+                    if (!span.getHasView()) {
+                        released = span;
+                    }
+                }
+                assertNotNull(released);
+
+                //Selection is kept while the token has no view
+                released.setTokenSelected(true);
+                assertTrue(released.isTokenSelected());
+                assertFalse(released.getHasView());
+
+                View view = released.getView();
+                assertTrue(released.getHasView());
+                assertTrue(view.isSelected());
+                Person person = (Person) released.getToken();
+                assertEquals(person.getEmail(), ((TextView) view).getText().toString());
+            }
+        });
+    }
+
     @Test
     public void handlesHintOnInitialItemSelected() {
         final ContactsCompletionView completionView = activityRule.getActivity().completionView;
@@ -0,0 +1,22 @@
+package com.tokenautocompleteexample;
+
+import com.tokenautocomplete.TokenCompleteTextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class TestBatchTokenListener extends TestTokenListener implements TokenCompleteTextView.BatchTokenListener<Person> {
+
+    List<List<Person>> addedBatches = new ArrayList<>();
+    List<List<Person>> removedBatches = new ArrayList<>();
+
+    @Override
+    public void onTokensAdded(List<Person> tokens) {
+        addedBatches.add(new ArrayList<>(tokens));
+    }
+
+    @Override
+    public void onTokensRemoved(List<Person> tokens) {
+        removedBatches.add(new ArrayList<>(tokens));
+    }
+}
@@ -0,0 +1,91 @@
+package com.tokenautocompleteexample;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.ColorDrawable;
+import android.text.TextPaint;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.tokenautocomplete.TokenChip;
+import com.tokenautocomplete.TokenChipStyle;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenChipTest {
+
+    private static final String LABEL = "Marshall Weir";
+    private static final float TEXT_SIZE = 30f;
+    private static final int PADDING = 8;
+
+    private TokenChipStyle style;
+    private int labelWidth;
+
+    @Before
+    public void setUp() {
+        style = new TokenChipStyle(TEXT_SIZE, Color.BLACK, Color.GRAY, Color.WHITE, Color.BLUE,
+                0f, PADDING, PADDING / 2);
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(TEXT_SIZE);
+        labelWidth = (int) Math.ceil(paint.measureText(LABEL));
+    }
+
+    @Test
+    public void sizesToLabelAndPadding() {
+        TokenChip chip = new TokenChip(LABEL, style);
+        Paint.FontMetricsInt fontMetricsInt = new Paint.FontMetricsInt();
+        assertEquals(PADDING + labelWidth + PADDING, chip.getSize(fontMetricsInt, 0));
+        assertEquals(-style.getBaseline(), fontMetricsInt.top);
+        assertEquals(-style.getBaseline(), fontMetricsInt.ascent);
+        assertEquals(style.getHeight() - style.getBaseline(), fontMetricsInt.bottom);
+        assertEquals(style.getHeight() - style.getBaseline(), fontMetricsInt.descent);
+    }
+
+    @Test
+    public void iconAddsItsWidth() {
+        TokenChip chip = new TokenChip(LABEL, style, new ColorDrawable(Color.RED));
+        int iconWidth = style.getIconSize() + style.getIconPadding();
+        assertEquals(PADDING + iconWidth + labelWidth + PADDING, chip.getSize(null, 0));
+    }
+
+    @Test
+    public void ellipsizesToMaxWidth() {
+        TokenChip chip = new TokenChip(LABEL, style);
+        int fullWidth = chip.getSize(null, 0);
+        int maxWidth = fullWidth / 2;
+        int width = chip.getSize(null, maxWidth);
+        assertTrue(width <= maxWidth);
+        assertTrue(width > 2 * PADDING);
+
+        //The whole label is shown again with enough room
+        assertEquals(fullWidth, chip.getSize(null, fullWidth));
+        assertEquals(fullWidth, chip.getSize(null, 0));
+    }
+
+    @Test
+    public void drawsSelectedColors() {
+        TokenChip chip = new TokenChip(LABEL, style);
+        Bitmap bitmap = Bitmap.createBitmap(chip.getSize(null, 0), style.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        chip.draw(canvas, 0f, style.getBaseline(), 0);
+        //Inside the padding, away from the label
+        assertEquals(Color.GRAY, bitmap.getPixel(1, 1));
+
+        chip.setSelected(true);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        chip.draw(canvas, 0f, style.getBaseline(), 0);
+        assertEquals(Color.BLUE, bitmap.getPixel(1, 1));
+
+        chip.setSelected(false);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        chip.draw(canvas, 0f, style.getBaseline(), 0);
+        assertEquals(Color.GRAY, bitmap.getPixel(1, 1));
+    }
+}
@@ -1,7 +1,10 @@
 package com.tokenautocompleteexample;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.os.Build;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
@@ -15,6 +18,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Instrumentation test, which will execute on an Android device.
@@ -36,6 +43,48 @@ public class ViewSpanTest {
         }
     }
 
+    private static class CountingView extends View {
+        int drawCount;
+
+        CountingView(Context context) {
+            super(context);
+            setMinimumHeight(20);
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            drawCount++;
+        }
+    }
+
+    /**
+     * Span that can give its view up, and counts the views it creates
+     */
+    private class ReleasingSpan extends ViewSpan {
+        int createdViews;
+        int measuredViews;
+
+        ReleasingSpan(View view) {
+            super(view, layout);
+        }
+
+        View release() {
+            return releaseView();
+        }
+
+        @Override
+        protected View createView() {
+            createdViews++;
+            return new CountingView(context);
+        }
+
+        @Override
+        protected View measureView() {
+            measuredViews++;
+            return new CountingView(context);
+        }
+    }
+
     @Rule
     public ActivityTestRule<TokenActivity> activityRule = new ActivityTestRule<>(
             TokenActivity.class);
@@ -92,4 +141,136 @@ public class ViewSpanTest {
         assertEquals(0, fontMetricsInt.bottom);
         assertEquals(-view.getHeight(), fontMetricsInt.top);
     }
+
+    private void draw(ViewSpan span) {
+        //Software canvases are recorded to a Bitmap
+        Canvas canvas = new Canvas(Bitmap.createBitmap(200, 50, Bitmap.Config.ARGB_8888));
+        span.draw(canvas, "", 0, 0, 0f, 0, 20, 20, new Paint());
+    }
+
+    @Test
+    public void drawsViewEveryTimeWithoutRenderCaching() {
+        CountingView view = new CountingView(context);
+        ViewSpan span = new ViewSpan(view, layout);
+        draw(span);
+        draw(span);
+        assertEquals(2, view.drawCount);
+    }
+
+    @Test
+    public void replaysRecordedRendering() {
+        CountingView view = new CountingView(context);
+        ViewSpan span = new ViewSpan(view, layout);
+        span.setRenderCaching(true);
+        draw(span);
+        draw(span);
+        assertEquals(1, view.drawCount);
+    }
+
+    @Test
+    public void recordsAgainWhenSelected() {
+        CountingView view = new CountingView(context);
+        ViewSpan span = new ViewSpan(view, layout);
+        span.setRenderCaching(true);
+        draw(span);
+        view.setSelected(true);
+        draw(span);
+        draw(span);
+        assertEquals(2, view.drawCount);
+    }
+
+    @Test
+    public void recordsAgainWhenWidthChanges() {
+        CountingView view = new CountingView(context);
+        ViewSpan span = new ViewSpan(view, layout);
+        span.setRenderCaching(true);
+        draw(span);
+        layout.width = 60;
+        draw(span);
+        assertEquals(2, view.drawCount);
+    }
+
+    @Test
+    public void recordsAgainWhenInvalidated() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        CountingView view = new CountingView(context);
+        ViewSpan span = new ViewSpan(view, layout);
+        span.setRenderCaching(true);
+        draw(span);
+        assertFalse(span.invalidateCacheIfDirty());
+
+        //Like an image that finished loading, without a new layout
+        view.invalidate();
+        draw(span);
+        draw(span);
+        assertEquals(2, view.drawCount);
+
+        view.invalidate();
+        assertTrue(span.invalidateCacheIfDirty());
+        assertFalse(span.invalidateCacheIfDirty());
+        draw(span);
+        assertEquals(3, view.drawCount);
+    }
+
+    @Test
+    public void redrawsAfterInvalidateCache() {
+        CountingView view = new CountingView(context);
+        ViewSpan span = new ViewSpan(view, layout);
+        span.setRenderCaching(true);
+        draw(span);
+        span.invalidateCache();
+        draw(span);
+        assertEquals(2, view.drawCount);
+    }
+
+    @Test
+    public void releasedSpanKeepsItsSize() {
+        CountingView view = new CountingView(context);
+        ReleasingSpan span = new ReleasingSpan(view);
+        Paint paint = new Paint();
+        Paint.FontMetricsInt fontMetricsInt = new Paint.FontMetricsInt();
+        int width = span.getSize(paint, "", 0, 0, fontMetricsInt);
+
+        assertEquals(view, span.release());
+        assertFalse(span.getHasView());
+        Paint.FontMetricsInt releasedMetrics = new Paint.FontMetricsInt();
+        assertEquals(width, span.getSize(paint, "", 0, 0, releasedMetrics));
+        assertEquals(fontMetricsInt.top, releasedMetrics.top);
+        assertEquals(fontMetricsInt.bottom, releasedMetrics.bottom);
+        assertEquals(0, span.createdViews);
+        assertEquals(0, span.measuredViews);
+    }
+
+    @Test
+    public void releasedSpanIsMeasuredWithoutCreatingAView() {
+        ReleasingSpan span = new ReleasingSpan(new CountingView(context));
+        Paint paint = new Paint();
+        span.getSize(paint, "", 0, 0, null);
+        span.release();
+
+        layout.width = 60;
+        assertEquals(60, span.getSize(paint, "", 0, 0, null));
+        assertEquals(1, span.measuredViews);
+        assertEquals(0, span.createdViews);
+        assertFalse(span.getHasView());
+
+        //Not measured again for the same width
+        span.getSize(paint, "", 0, 0, null);
+        assertEquals(1, span.measuredViews);
+    }
+
+    @Test
+    public void releasedSpanCreatesAViewToDraw() {
+        CountingView view = new CountingView(context);
+        ReleasingSpan span = new ReleasingSpan(view);
+        span.getSize(new Paint(), "", 0, 0, null);
+        span.release();
+
+        draw(span);
+        assertEquals(1, span.createdViews);
+        assertTrue(span.getHasView());
+        assertNotSame(view, span.getView());
+        assertEquals(1, ((CountingView) span.getView()).drawCount);
+        assertEquals(0, view.drawCount);
+    }
 }
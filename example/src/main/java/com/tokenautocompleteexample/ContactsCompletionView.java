@@ -22,6 +22,7 @@ public class ContactsCompletionView extends TokenCompleteTextView<Person> {
 
     InputConnection testAccessibleInputConnection;
     Person personToIgnore;
+    int collapseCount;
 
     public ContactsCompletionView(Context context) {
         super(context);
@@ -70,6 +71,12 @@ public class ContactsCompletionView extends TokenCompleteTextView<Person> {
         return personToIgnore != null && personToIgnore.getEmail().equals(token.getEmail());
     }
 
+    @Override
+    public void performCollapse(boolean hasFocus) {
+        collapseCount++;
+        super.performCollapse(hasFocus);
+    }
+
     public void simulateSelectingPersonFromList(Person person) {
         convertSelectionToString(person);
         replaceText(currentCompletionText());
@@ -11,12 +11,16 @@ import android.widget.TextView;
 
 import com.tokenautocomplete.FilteredArrayAdapter;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class PersonAdapter extends FilteredArrayAdapter<Person> {
     @LayoutRes private int layoutId;
 
     PersonAdapter(Context context, @LayoutRes int layoutId, Person[] people) {
         super(context, layoutId, people);
         this.layoutId = layoutId;
+        setIndexedFiltering(true);
     }
 
     @Override
@@ -35,8 +39,7 @@ public class PersonAdapter extends FilteredArrayAdapter<Person> {
     }
 
     @Override
-    protected boolean keepObject(Person person, String mask) {
-        mask = mask.toLowerCase();
-        return person.getName().toLowerCase().startsWith(mask) || person.getEmail().toLowerCase().startsWith(mask);
+    protected List<String> searchKeys(Person person) {
+        return Arrays.asList(person.getName(), person.getEmail());
     }
 }
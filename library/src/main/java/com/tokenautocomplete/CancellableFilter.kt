@@ -0,0 +1,15 @@
+package com.tokenautocomplete
+
+/**
+ * Filter that can give up on a constraint once a newer one has been requested
+ *
+ * TokenCompleteTextView calls [cancelFiltering] right before queueing each new constraint, so
+ * a search that is still running for an older constraint can stop early. Results for cancelled
+ * constraints should never be published.
+ */
+interface CancellableFilter {
+    /**
+     * Mark any filtering currently in progress or waiting to be published as stale
+     */
+    fun cancelFiltering()
+}
@@ -0,0 +1,63 @@
+package com.tokenautocomplete
+
+/**
+ * Immutable list stored in fixed size chunks, where changes return a new list
+ *
+ * A new list shares every chunk it did not change with the list it was made from, so replacing
+ * or appending an element copies one chunk and the chunk directory instead of every element.
+ * Lists made earlier never see later changes, so they can be read from other threads.
+ */
+internal class ChunkedList<E> private constructor(
+    private val chunks: Array<Array<Any?>?>,
+    override val size: Int
+) : AbstractList<E>() {
+
+    override fun get(index: Int): E {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("$index >= $size")
+        @Suppress("unchecked_cast")
+        return chunks[index ushr CHUNK_SHIFT]!![index and CHUNK_MASK] as E
+    }
+
+    /**
+     * @return a list with elements added at the end
+     */
+    fun appended(elements: Collection<E>): ChunkedList<E> {
+        if (elements.isEmpty()) return this
+        val newSize = size + elements.size
+        val newChunks = chunks.copyOf((newSize + CHUNK_MASK) ushr CHUNK_SHIFT)
+        var index = size
+        for (element in elements) {
+            val chunk = index ushr CHUNK_SHIFT
+            if (newChunks[chunk] == null) {
+                newChunks[chunk] = arrayOfNulls(CHUNK_SIZE)
+            } else if (chunk < chunks.size && newChunks[chunk] === chunks[chunk]) {
+                newChunks[chunk] = chunks[chunk]!!.copyOf()
+            }
+            newChunks[chunk]!![index and CHUNK_MASK] = element
+            index++
+        }
+        return ChunkedList(newChunks, newSize)
+    }
+
+    /**
+     * @return a list with the element at index replaced
+     */
+    fun replaced(index: Int, element: E): ChunkedList<E> {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("$index >= $size")
+        val chunk = index ushr CHUNK_SHIFT
+        val newChunks = chunks.copyOf()
+        newChunks[chunk] = chunks[chunk]!!.copyOf().also { it[index and CHUNK_MASK] = element }
+        return ChunkedList(newChunks, size)
+    }
+
+    companion object {
+        private const val CHUNK_SHIFT = 10
+        private const val CHUNK_SIZE = 1 shl CHUNK_SHIFT
+        private const val CHUNK_MASK = CHUNK_SIZE - 1
+
+        @JvmStatic
+        fun <E> of(elements: Collection<E>): ChunkedList<E> {
+            return ChunkedList<E>(arrayOf<Array<Any?>?>(), 0).appended(elements)
+        }
+    }
+}
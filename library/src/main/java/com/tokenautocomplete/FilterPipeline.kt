@@ -0,0 +1,95 @@
+package com.tokenautocomplete
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.mapLatest
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+/**
+ * Runs searches on a [SuspendFilterable] as the completion text changes
+ *
+ * - queries are conflated, so only the latest one waits while a search is running
+ * - a running search is cancelled as soon as a newer query arrives
+ * - searches run on dispatcher, results are delivered in the scope passed to [start], usually
+ * on the main thread
+ *
+ * @param dispatcher where searches run
+ * @param listener receives the results for each query that was not replaced
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class FilterPipeline<T>(
+    private val dispatcher: CoroutineDispatcher,
+    private val listener: Listener<T>
+) {
+    //Latest query not answered yet. Cleared by stop, so a restart doesn't search it again
+    private val queries = MutableStateFlow<Request<T>?>(null)
+    private var job: Job? = null
+
+    interface Listener<T> {
+        /**
+         * Called with the results of the latest query
+         */
+        fun onResults(query: String, results: List<@JvmSuppressWildcards T>)
+
+        /**
+         * Called when the search for the latest query failed
+         */
+        fun onError(query: String, error: Throwable)
+    }
+
+    /**
+     * Search for a new query, replacing any query that has not been answered yet
+     *
+     * @param query the current completion text
+     * @param filterable what to search
+     */
+    fun onQuery(query: String, filterable: SuspendFilterable<T>) {
+        queries.value = Request(query, filterable)
+    }
+
+    /**
+     * Start answering queries in scope. Stops when scope is cancelled or [stop] is called.
+     */
+    fun start(scope: CoroutineScope) {
+        job?.cancel()
+        job = scope.launch {
+            queries.filterNotNull().mapLatest { request ->
+                try {
+                    val results = withContext(dispatcher) { request.filterable.search(request.query) }
+                    Response(request, results, null)
+                } catch (ex: CancellationException) {
+                    throw ex
+                } catch (ex: Exception) {
+                    Response(request, null, ex)
+                }
+            }.collect { response ->
+                queries.compareAndSet(response.request, null)
+                if (response.error != null) {
+                    listener.onError(response.request.query, response.error)
+                } else {
+                    listener.onResults(response.request.query, response.results!!)
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel the running search and stop answering queries. Queries that were not answered are
+     * dropped.
+     */
+    fun stop() {
+        job?.cancel()
+        job = null
+        queries.value = null
+    }
+
+    private class Request<T>(val query: String, val filterable: SuspendFilterable<T>)
+
+    private class Response<T>(val request: Request<T>, val results: List<T>?, val error: Throwable?)
+}
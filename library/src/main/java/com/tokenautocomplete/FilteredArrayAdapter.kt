@@ -1,9 +1,21 @@
 package com.tokenautocomplete
 
 import android.content.Context
+import android.os.Handler
+import android.os.Looper
 import android.widget.ArrayAdapter
 import android.widget.Filter
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.isActive
+import java.io.File
 import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Simplified custom filtered ArrayAdapter
@@ -17,25 +29,61 @@ import java.util.*
  * Created on 9/17/13.
  * @author mgod
  */
-abstract class FilteredArrayAdapter<T>
-/**
- * Constructor
- *
- * @param context The current context.
- * @param resource The resource ID for a layout file containing a layout to use when
- * instantiating views.
- * @param textViewResourceId The id of the TextView within the layout resource to be populated
- * @param objects The objects to represent in the ListView.
- */(
+abstract class FilteredArrayAdapter<T> private constructor(
     context: Context,
     resource: Int,
     textViewResourceId: Int,
-    objects: List<T>
+    objects: List<T>,
+    //The list backing ArrayAdapter, kept so published results can be patched in place
+    private val displayedObjects: ArrayList<T>
 ) : ArrayAdapter<T>(
-    context, resource, textViewResourceId, ArrayList(objects)
-) {
-    private val originalObjects: List<T> = objects
+    context, resource, textViewResourceId, displayedObjects
+), SuspendFilterable<T> {
+    //Replaced, never modified, so a filter pass can keep using the snapshot it started with
+    @Volatile
+    private var source = SourceSnapshot.of(objects, SearchKeyNormalizer(Locale.getDefault())) {
+        searchKeys(it)
+    }
+    private val sourceLock = Any()
     private var filter: Filter? = null
+    @Volatile
+    private var indexedFiltering = false
+    @Volatile
+    private var wordMatching = false
+    @Volatile
+    private var fuzzyEdits = -1
+    @Volatile
+    private var incrementalFiltering = false
+    @Volatile
+    private var lastFilterResult: FilterResult? = null
+    @Volatile
+    private var parallelFilteringThreshold = -1
+    @Volatile
+    private var resultLimit = -1
+    @Volatile
+    private var queryCache: QueryResultCache? = null
+    private var diffPublishing = false
+    @Volatile
+    private var streamingBatchSize = -1
+    private val mainHandler = Handler(Looper.getMainLooper())
+    //Number of displayed rows that were streamed by the filter pass in progress
+    private var streamedCount = 0
+
+    /**
+     * Constructor
+     *
+     * @param context The current context.
+     * @param resource The resource ID for a layout file containing a layout to use when
+     * instantiating views.
+     * @param textViewResourceId The id of the TextView within the layout resource to be populated
+     * @param objects The objects to represent in the ListView.
+     */
+    constructor(
+        context: Context,
+        resource: Int,
+        textViewResourceId: Int,
+        objects: List<T>
+    ) : this(context, resource, textViewResourceId, objects, ArrayList(objects))
 
     /**
      * Constructor
@@ -89,14 +137,360 @@ abstract class FilteredArrayAdapter<T>
         return filter!!
     }
 
+    /**
+     * Same search as [getFilter], for [TokenCompleteTextView.setCoroutineFiltering]. Stops
+     * checking objects as soon as the calling coroutine is cancelled.
+     */
+    override suspend fun search(constraint: String): List<T> {
+        val context = currentCoroutineContext()
+        val objects = filterObjects(constraint, { !context.isActive }) { batch, first ->
+            mainHandler.post { if (context.isActive) showStreamed(batch, first) }
+        }
+        context.ensureActive()
+        return objects ?: emptyList()
+    }
+
+    override fun showResults(results: List<T>) {
+        showFiltered(results)
+    }
+
+    /**
+     * Use a sorted index of [searchKeys] to find candidates for a mask instead of checking every
+     * object. The index is built once, on the filtering thread, the first time it is needed.
+     * Candidates found in the index are still passed through [keepObject].
+     *
+     * @param indexed true to enable indexed filtering. Defaults to false.
+     */
+    fun setIndexedFiltering(indexed: Boolean) {
+        indexedFiltering = indexed
+        if (!indexed) source.releaseIndexes(prefix = true, wordStart = false, trigram = false)
+        discardResults()
+    }
+
+    /**
+     * Treat the mask as separate words and keep objects where every word of the mask starts a
+     * word in one of the [searchKeys], so "ann sm" finds "Anne Smith" and "sm" finds it too.
+     * Candidates are found by intersecting the lists of objects for each word in an index of word
+     * starts, built on the filtering thread the first time it is needed.
+     *
+     * Objects without search keys are not found while word matching is enabled.
+     *
+     * @param enabled true to enable word matching. Defaults to false.
+     */
+    @Suppress("unused")
+    fun setWordMatching(enabled: Boolean) {
+        wordMatching = enabled
+        if (!enabled) source.releaseIndexes(prefix = false, wordStart = true, trigram = false)
+        discardResults()
+    }
+
+    /**
+     * Also match objects with a key that starts within maxEdits typos of the mask, so "jhon"
+     * still finds "John". Candidates are found with a trigram index of [searchKeys] built on the
+     * filtering thread the first time it is needed, and only those are checked with a bounded
+     * edit distance. Insertions, deletions, substitutions and swapping two adjacent characters
+     * each count as one edit.
+     *
+     * Short masks allow fewer typos: one for every [FUZZY_CHARS_PER_EDIT] characters of the
+     * mask, up to maxEdits, and only as many as the trigram index can look up (two typos from 10
+     * characters). Masks of 3 to 5 characters are too short for the trigram index, they allow
+     * one typo in keys starting with their first or second character, found with the prefix
+     * index. Like indexed filtering, objects without search keys are not found once the mask is
+     * long enough to allow typos. Fuzzy matches still go through [keepObject], so it should not
+     * reject objects that don't start with the mask.
+     *
+     * @param maxEdits maximum number of typos to allow. -1 disables fuzzy matching. Defaults to -1.
+     */
+    @Suppress("unused")
+    fun setFuzzyMatching(maxEdits: Int) {
+        fuzzyEdits = maxEdits
+        if (maxEdits == -1) source.releaseIndexes(prefix = false, wordStart = false, trigram = true)
+        discardResults()
+    }
+
+    /**
+     * Narrow the previous results instead of checking every object again when the new mask
+     * starts with the previous one, like going from "jo" to "joh". Deleting characters or
+     * changing the start of the mask falls back to a full search.
+     *
+     * Only enable this if [keepObject] never keeps an object for a mask after rejecting it for
+     * a shorter prefix of that mask. Case insensitive startsWith checks on the object's fields
+     * meet this requirement.
+     *
+     * @param incremental true to enable incremental filtering. Defaults to false.
+     */
+    fun setIncrementalFiltering(incremental: Boolean) {
+        incrementalFiltering = incremental
+        discardResults()
+    }
+
+    /**
+     * Split the objects into chunks and check them on several threads when there are at least
+     * threshold candidates for a mask. Chunk results are merged in the original order.
+     *
+     * [keepObject] will be called concurrently from multiple threads when this is enabled, so
+     * only enable it if your implementation is thread safe.
+     *
+     * @param threshold minimum number of candidates to filter in parallel. -1 disables parallel
+     * filtering. Defaults to -1.
+     */
+    @Suppress("unused")
+    fun setParallelFilteringThreshold(threshold: Int) {
+        parallelFilteringThreshold = threshold
+    }
+
+    /**
+     * Only publish the best limit matches for a mask. Matches are ranked with [scoreObject] and
+     * collected in a bounded heap, so filtering memory and the cost of publishing results depend
+     * on the limit rather than on the number of objects.
+     *
+     * @param limit maximum number of results. -1 disables the limit and keeps the original object
+     * order. Defaults to -1.
+     */
+    @Suppress("unused")
+    fun setResultLimit(limit: Int) {
+        resultLimit = limit
+        discardResults()
+    }
+
+    /**
+     * Remember the results of recent masks, so typing a mask again after deleting characters
+     * doesn't search the objects again. Masks are looked up after normalization, so only enable
+     * this if [keepObject] gives the same answer for masks that normalize to the same string.
+     * The cache is cleared whenever a setting that changes the results is changed.
+     *
+     * @param maxEntries maximum number of masks to remember. 0 disables the cache. Defaults to 0.
+     * @param maxBytes approximate maximum memory used by the cached results
+     */
+    @Suppress("unused")
+    fun setQueryCache(maxEntries: Int, maxBytes: Long) {
+        queryCache = if (maxEntries > 0 && maxBytes > 0) {
+            QueryResultCache(maxEntries, maxBytes)
+        } else {
+            null
+        }
+        lastFilterResult = null
+    }
+
+    /**
+     * Number of filter passes answered from the query cache
+     */
+    @Suppress("unused")
+    val queryCacheHitCount: Long
+        get() = queryCache?.hitCount ?: 0
+
+    /**
+     * Number of filter passes that had to search because the mask was not in the query cache
+     */
+    @Suppress("unused")
+    val queryCacheMissCount: Long
+        get() = queryCache?.missCount ?: 0
+
+    /**
+     * Compare new filter results with the displayed ones instead of replacing them. Nothing is
+     * notified if the results did not change, and otherwise only the rows between the unchanged
+     * start and end of the list are replaced before a single data set change notification.
+     *
+     * @param diff true to enable diff publishing. Defaults to false.
+     */
+    @Suppress("unused")
+    fun setDiffPublishing(diff: Boolean) {
+        diffPublishing = diff
+    }
+
+    /**
+     * Show the first matches of a slow filter pass as soon as they are found, instead of waiting
+     * for the whole pass. The first batchSize matches are shown right away, then more rows are
+     * appended each time the number of matches doubles, and the rest when the pass is complete.
+     * Rows are only ever appended, so rows the user can already see never move.
+     *
+     * Ranked results from [setResultLimit] can't be streamed, since a later match may rank above
+     * the displayed ones, so this has no effect while a result limit is set.
+     *
+     * @param batchSize number of matches to show first, or -1 to only show complete results.
+     * Defaults to -1.
+     */
+    @Suppress("unused")
+    fun setStreamingResults(batchSize: Int) {
+        streamingBatchSize = batchSize
+    }
+
+    /**
+     * Set the locale used to case fold search keys and masks. Cached keys are rebuilt on the
+     * next filter pass.
+     *
+     * @param locale the locale to use. Defaults to the default locale when the adapter was created.
+     */
+    @Suppress("unused")
+    fun setSearchLocale(locale: Locale) {
+        synchronized(sourceLock) {
+            source = source.withNormalizer(SearchKeyNormalizer(locale))
+            discardResults()
+        }
+    }
+
+    /**
+     * Save the normalized search keys and the index used by [setIndexedFiltering] to a file
+     * after building them, and load them from that file the next time an adapter is created
+     * with the same objects. The file is mapped into memory rather than read, so a large index
+     * is available on the first keystroke instead of being rebuilt.
+     *
+     * The file is ignored and written again if it was saved for a different data version,
+     * number of objects or search locale, or if it is corrupt. Objects changed with
+     * [addSource], [removeSource] or [updateSource] after the file is loaded are handled in
+     * memory without saving them.
+     *
+     * @param file file in app storage to keep the index in
+     * @param dataVersion version of the objects passed to the constructor. Change it whenever
+     * the objects or their [searchKeys] change
+     */
+    @Suppress("unused")
+    fun setPersistentIndex(file: File, dataVersion: Long) {
+        synchronized(sourceLock) {
+            source = source.withIndexFile(IndexFile(file, dataVersion))
+            discardResults()
+        }
+    }
+
+    /**
+     * Add an object to filter, after the existing ones. Cached search keys and indexes are
+     * updated instead of rebuilt, and a filter pass that is already running keeps using the
+     * objects it started with. The object is shown from the next filter pass.
+     *
+     * Safe to call from any thread.
+     *
+     * @param obj the object to add
+     */
+    @Suppress("unused")
+    fun addSource(obj: T) {
+        addSources(listOf(obj))
+    }
+
+    /**
+     * Add objects to filter, after the existing ones. See [addSource].
+     *
+     * @param objects the objects to add
+     */
+    fun addSources(objects: Collection<T>) {
+        synchronized(sourceLock) {
+            source = source.plus(objects)
+            discardResults()
+        }
+    }
+
+    /**
+     * Stop filtering an object. See [addSource].
+     *
+     * @param obj the object to remove. The first object equal to it is removed
+     * @return true if the object was found
+     */
+    @Suppress("unused")
+    fun removeSource(obj: T): Boolean {
+        synchronized(sourceLock) {
+            val id = source.indexOf(obj)
+            if (id == -1) return false
+            source = source.minus(id)
+            discardResults()
+            return true
+        }
+    }
+
+    /**
+     * Replace an object with an updated version, keeping its position. Its search keys are
+     * read again from [searchKeys]. See [addSource].
+     *
+     * @param oldObject the object to replace. The first object equal to it is replaced
+     * @param newObject the object to filter instead
+     * @return true if oldObject was found
+     */
+    @Suppress("unused")
+    fun updateSource(oldObject: T, newObject: T): Boolean {
+        synchronized(sourceLock) {
+            val id = source.indexOf(oldObject)
+            if (id == -1) return false
+            source = source.replaced(id, newObject)
+            discardResults()
+            return true
+        }
+    }
+
+    /**
+     * Forget results computed with the previous settings or objects
+     */
+    private fun discardResults() {
+        lastFilterResult = null
+        queryCache?.clear()
+    }
+
+    /**
+     * Searchable strings for an object. Keys are normalized with [SearchKeyNormalizer] once
+     * and cached, and the mask is normalized once per filter pass.
+     *
+     * An object with keys is only kept when one of its normalized keys starts with the
+     * normalized mask, or with a close misspelling of it when fuzzy matching is enabled, or
+     * when every word of the mask starts one of its words with word matching enabled, before
+     * [keepObject] is consulted. Objects without keys are only checked
+     * with [keepObject], and are never found by indexed filtering.
+     *
+     * @param obj object to extract keys from
+     * @return the keys for the object, or null if the object has no search keys
+     */
+    protected open fun searchKeys(obj: T): List<String>? {
+        return null
+    }
+
     /**
      * Filter method used by the adapter. Return true if the object should remain in the list
      *
+     * Objects with [searchKeys] are only passed here after matching the mask on one of their
+     * keys, so the default implementation keeps them all. With parallel filtering enabled,
+     * this may be called from several threads at once.
+     *
      * @param obj object we are checking for inclusion in the adapter
      * @param mask current text in the edit text we are completing against
      * @return true if we should keep the item in the adapter
      */
-    protected abstract fun keepObject(obj: T, mask: String?): Boolean
+    protected open fun keepObject(obj: T, mask: String?): Boolean {
+        return true
+    }
+
+    /**
+     * Rank an object that matched the mask when a result limit is set. Higher scores are shown
+     * first and ties keep the original object order.
+     *
+     * The default implementation scores the best matching search key: 3 for an exact match, 2 for
+     * a key starting with the mask, 1 for a word inside a key starting with the mask and 0 for
+     * anything else. With parallel filtering enabled, this may be called from several threads.
+     *
+     * @param obj object that matched the mask
+     * @param mask current text in the edit text we are completing against
+     * @param normalizedKeys the normalized [searchKeys] for the object, if it has any
+     * @param normalizedMask the mask, normalized the same way as the keys
+     * @return score of the object, higher is better
+     */
+    protected open fun scoreObject(
+        obj: T, mask: String,
+        normalizedKeys: List<String>?, normalizedMask: String
+    ): Int {
+        var best = 0
+        normalizedKeys?.forEach { key ->
+            val score = when {
+                key == normalizedMask -> 3
+                key.startsWith(normalizedMask) -> 2
+                hasWordStartingWith(key, normalizedMask) -> 1
+                else -> 0
+            }
+            if (score > best) best = score
+        }
+        return best
+    }
+
+    private fun hasWordStartingWith(key: String, prefix: String): Boolean {
+        for (i in 1..key.length - prefix.length) {
+            if (!key[i - 1].isLetterOrDigit() && key.startsWith(prefix, i)) return true
+        }
+        return false
+    }
 
     /**
      * Class for filtering Adapter, relies on keepObject in FilteredArrayAdapter
@@ -105,35 +499,396 @@ abstract class FilteredArrayAdapter<T>
      * in turn inspired by inspired by Alxandr
      * (http://stackoverflow.com/a/2726348/570168)
      */
-    private inner class AppFilter : Filter() {
+    private inner class AppFilter : Filter(), CancellableFilter {
+        private val generation = AtomicInteger()
+
+        override fun cancelFiltering() {
+            generation.incrementAndGet()
+        }
+
         override fun performFiltering(chars: CharSequence?): FilterResults {
-            val sourceObjects = ArrayList(originalObjects)
-            val result = FilterResults()
-            if (chars != null && chars.isNotEmpty()) {
-                val mask = chars.toString()
-                val keptObjects = ArrayList<T>()
-                for (sourceObject in sourceObjects) {
-                    if (keepObject(sourceObject, mask)) keptObjects.add(sourceObject)
-                }
-                result.count = keptObjects.size
-                result.values = keptObjects
-            } else {
-                // add all objects
-                result.values = sourceObjects
-                result.count = sourceObjects.size
+            val startGeneration = generation.get()
+            val objects = filterObjects(chars, { startGeneration != generation.get() }) { batch, first ->
+                mainHandler.post { if (startGeneration == generation.get()) showStreamed(batch, first) }
             }
+            val result = FilterResults()
+            //Null objects means a newer constraint is already queued, so nobody will see them
+            result.values = StampedObjects(startGeneration, objects ?: emptyList())
+            result.count = objects?.size ?: 0
             return result
         }
 
         override fun publishResults(constraint: CharSequence?, results: FilterResults) {
-            clear()
-            if (results.count > 0) {
-                @Suppress("unchecked_cast")
-                this@FilteredArrayAdapter.addAll(results.values as Collection<T>)
-                notifyDataSetChanged()
+            @Suppress("unchecked_cast")
+            val stampedObjects = results.values as StampedObjects<T>
+            if (stampedObjects.generation != generation.get()) {
+                //Never show results for a constraint that has been replaced by a newer one.
+                //The filter listener still gets this count, so report what is already displayed
+                results.count = count
+                return
+            }
+            showFiltered(stampedObjects.objects)
+        }
+    }
+
+    /**
+     * Find the objects matching a constraint, for [AppFilter] or [search]
+     *
+     * @param chars the constraint, null or empty to list every object
+     * @param isCancelled checked while filtering, returns true to give up early
+     * @param onStreamed called on the filtering thread with each batch of matches found so far
+     * when streaming, and whether it is the first batch of the pass
+     * @return the matching objects, or null if filtering was cancelled
+     */
+    private fun filterObjects(
+        chars: CharSequence?,
+        isCancelled: () -> Boolean,
+        onStreamed: (List<T>, Boolean) -> Unit
+    ): List<T>? {
+        if (chars == null || chars.isEmpty()) {
+            lastFilterResult = null
+            // add all objects
+            return source.liveObjects(resultLimit)
+        }
+        val cache = queryCache
+        //Read before the source, so results for a replaced source can't be cached
+        val cacheVersion = cache?.version ?: 0
+        val limit = resultLimit
+        val query = Query(
+            chars.toString(), source, wordMatching, fuzzyEdits,
+            isCancelled, limit, if (limit == -1) streamingBatchSize else -1, onStreamed
+        )
+        //The source may already be replaced while the cache still has its old entries
+        val cached = cache?.get(query.normalizedMask, query.source)
+        if (cached != null) {
+            lastFilterResult = if (incrementalFiltering && cached.complete) {
+                FilterResult(query.mask, query.source, query.maxEdits, cached.ids)
             } else {
-                notifyDataSetInvalidated()
+                null
+            }
+            return cached.ids.map { query.source[it] }
+        }
+        val previous = lastFilterResult
+        //Candidate object ids, null means every object. A longer mask can allow more
+        //typos, and then match objects the previous pass dropped
+        val candidates = if (previous != null && previous.source === query.source &&
+            query.mask.startsWith(previous.mask) && query.maxEdits <= previous.maxEdits) {
+            previous.ids
+        } else {
+            findIndexed(query)?.let {
+                //Objects changed since the indexes were built have to be checked too
+                IntList.union(it, query.source.changes)
+            }
+        }
+        val kept = keepObjects(candidates, query) ?: return null
+        val keptIds = kept.ids
+        cache?.put(query.normalizedMask, query.source, keptIds, kept.complete, cacheVersion)
+        //A truncated result can't be refined, it is missing some of the matches
+        lastFilterResult = if (incrementalFiltering && kept.complete) {
+            FilterResult(query.mask, query.source, query.maxEdits, keptIds)
+        } else {
+            null
+        }
+        return keptIds.map { query.source[it] }
+    }
+
+    /**
+     * Look up candidates for the query in the enabled indexes
+     *
+     * @return ids of candidates found in the indexes, or null if no index applies
+     */
+    private fun findIndexed(query: Query<T>): IntArray? {
+        val source = query.source
+        return if (query.words != null) {
+            val wordCandidates = source.wordStartIndex().find(query.words)
+            if (query.maxEdits > 0) {
+                IntList.union(wordCandidates, findFuzzy(query))
+            } else {
+                wordCandidates
+            }
+        } else if (query.maxEdits > 0) {
+            findFuzzy(query)
+        } else if (indexedFiltering) {
+            source.prefixIndex().find(query.normalizedMask)
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Look up candidates within the typos allowed by the query, in the trigram index or, for
+     * masks too short for trigrams, in the prefix index
+     *
+     * @return ids of candidates in ascending order
+     */
+    private fun findFuzzy(query: Query<T>): IntArray {
+        val source = query.source
+        val mask = query.normalizedMask
+        return if (query.maxEdits <= TrigramIndex.maxIndexedEdits(mask.length)) {
+            source.trigramIndex().find(mask, query.maxEdits) ?: source.prefixIndex().find(mask)
+        } else {
+            source.prefixIndex().findWithTypo(mask)
+        }
+    }
+
+    /**
+     * Check all the candidates against the query, in parallel if there are enough of them
+     *
+     * @param candidates ids of the objects to check, or null to check every object
+     * @return the kept ids, or null if filtering was cancelled
+     */
+    private fun keepObjects(candidates: IntArray?, query: Query<T>): KeptIds? {
+        val candidateCount = candidates?.size ?: query.source.size
+        val keys = query.source.baseKeys()
+        val threshold = parallelFilteringThreshold
+        val chunkCount = PARALLELISM.coerceAtMost(candidateCount / MIN_CHUNK_SIZE)
+        if (threshold == -1 || candidateCount < threshold || chunkCount < 2) {
+            return keepObjects(candidates, 0, candidateCount, keys, query)
+        }
+
+        val chunkSize = (candidateCount + chunkCount - 1) / chunkCount
+        val futures = ArrayList<Future<KeptIds?>>()
+        for (start in chunkSize until candidateCount step chunkSize) {
+            val end = (start + chunkSize).coerceAtMost(candidateCount)
+            futures.add(parallelExecutor.submit<KeptIds?> {
+                keepObjects(candidates, start, end, keys, query)
+            })
+        }
+        //Use this thread for the first chunk instead of waiting on the others
+        val kept = keepObjects(candidates, 0, chunkSize, keys, query)
+        if (kept == null) {
+            for (future in futures) future.cancel(false)
+            return null
+        }
+        for (future in futures) {
+            val chunk = try {
+                future.get()
+            } catch (ex: ExecutionException) {
+                //Surface errors from keepObject the same way as single threaded filtering
+                throw ex.cause ?: ex
             }
+            kept.addAll(chunk ?: return null)
+        }
+        return kept
+    }
+
+    private fun keepObjects(
+        candidates: IntArray?, start: Int, end: Int,
+        keys: KeyStore, query: Query<T>
+    ): KeptIds? {
+        val kept = KeptIds(query.limit)
+        //Only the first chunk streams, so streamed rows are always a prefix of the results
+        var nextBatch = if (start == 0 && query.batchSize > 0) query.batchSize else -1
+        var streamed = 0
+        for (position in start until end) {
+            if ((position - start) % CANCELLATION_CHECK_INTERVAL == 0 && query.isCancelled()) {
+                return null
+            }
+            val id = candidates?.get(position) ?: position
+            val source = query.source
+            if (!source.isLive(id)) continue
+            val change = source.changeIndex(id)
+            val store = if (change == -1) keys else source.changedKeys
+            val keyId = if (change == -1) id else change
+            if (store.hasKeys(keyId) && !query.matchesKeys(store, keyId)) {
+                continue
+            }
+            val obj = source[id]
+            if (keepObject(obj, query.mask)) {
+                kept.add(id) { scoreObject(obj, query.mask, store.keys(keyId), query.normalizedMask) }
+                if (kept.size == nextBatch) {
+                    query.onStreamed(kept.objects(streamed, nextBatch, source), streamed == 0)
+                    streamed = nextBatch
+                    nextBatch *= 2
+                }
+            }
+        }
+        return kept
+    }
+
+    /**
+     * Replace the displayed objects with filter results
+     */
+    private fun showFiltered(objects: List<T>) {
+        val streamed = streamedCount
+        streamedCount = 0
+        if (streamed > 0 && streamed <= objects.size && displayedObjects == objects.subList(0, streamed)) {
+            //Keep the streamed rows where they are and only append the rest
+            if (streamed < objects.size) {
+                displayedObjects.addAll(objects.subList(streamed, objects.size))
+                notifyDataSetChanged()
+            }
+            return
+        }
+        if (diffPublishing) {
+            publishDiff(objects)
+            return
+        }
+        clear()
+        if (objects.isNotEmpty()) {
+            addAll(objects)
+            notifyDataSetChanged()
+        } else {
+            notifyDataSetInvalidated()
+        }
+    }
+
+    /**
+     * Show a batch of matches from a filter pass that is still running
+     *
+     * @param first true to replace the displayed objects, false to append to the earlier batches
+     */
+    private fun showStreamed(batch: List<T>, first: Boolean) {
+        if (first) {
+            displayedObjects.clear()
+            streamedCount = 0
+        }
+        displayedObjects.addAll(batch)
+        streamedCount += batch.size
+        notifyDataSetChanged()
+    }
+
+    /**
+     * Replace the displayed objects with results, only touching the rows that changed
+     */
+    private fun publishDiff(results: List<T>) {
+        val oldSize = displayedObjects.size
+        val newSize = results.size
+        var start = 0
+        while (start < oldSize && start < newSize && displayedObjects[start] == results[start]) {
+            start++
+        }
+        if (start == oldSize && start == newSize) {
+            //Nothing changed, so don't make the list rebind its rows
+            return
+        }
+        var end = 0
+        while (end < oldSize - start && end < newSize - start &&
+            displayedObjects[oldSize - end - 1] == results[newSize - end - 1]) {
+            end++
+        }
+        displayedObjects.subList(start, oldSize - end).clear()
+        displayedObjects.addAll(start, results.subList(start, newSize - end))
+        if (newSize > 0) {
+            notifyDataSetChanged()
+        } else {
+            notifyDataSetInvalidated()
+        }
+    }
+
+    /**
+     * A mask being filtered for, normalized once for the whole filter pass
+     */
+    private class Query<T>(
+        val mask: String, val source: SourceSnapshot<T>, wordMatching: Boolean, fuzzyEdits: Int,
+        val isCancelled: () -> Boolean, val limit: Int,
+        //Matches to stream first, -1 to not stream
+        val batchSize: Int, val onStreamed: (List<T>, Boolean) -> Unit
+    ) {
+        val normalizedMask = source.normalizer.normalize(mask)
+        //Words of the mask for word matching, null to only match the start of keys
+        val words = if (wordMatching) {
+            WordStartIndex.words(normalizedMask).takeIf { it.isNotEmpty() }
+        } else {
+            null
+        }
+        //Typos allowed for this mask, 0 for exact prefix matches only. Masks too short for the
+        //trigram index get one typo, looked up in the prefix index
+        val maxEdits = fuzzyEdits.coerceAtMost(normalizedMask.length / FUZZY_CHARS_PER_EDIT)
+            .coerceAtMost(TrigramIndex.maxIndexedEdits(normalizedMask.length).coerceAtLeast(1))
+            .coerceAtLeast(0)
+
+        /**
+         * @return true if the keys of the object with id in store match the mask
+         */
+        fun matchesKeys(store: KeyStore, id: Int): Boolean {
+            val keys = store.firstKey(id) until store.endKey(id)
+            if (keys.any { matchesKey(store, it) }) return true
+            return words != null && words.all { word ->
+                keys.any { store.startsWord(it, word) }
+            }
+        }
+
+        private fun matchesKey(store: KeyStore, key: Int): Boolean {
+            return store.startsWith(key, normalizedMask) || maxEdits > 0 &&
+                    store.prefixDistance(normalizedMask, key, maxEdits) <= maxEdits
+        }
+    }
+
+    /**
+     * Ids of the objects kept by a filter pass. With a result limit, only the best scoring ids
+     * are kept and results are ranked, otherwise every id is kept in candidate order.
+     */
+    private class KeptIds(limit: Int) {
+        private val all = if (limit == -1) IntList() else null
+        private val best = if (limit == -1) null else TopKCollector(limit)
+
+        /**
+         * False if some matches were dropped to stay within the result limit
+         */
+        val complete: Boolean
+            get() = best?.overflowed != true
+
+        val ids: IntArray
+            get() = all?.toArray() ?: best!!.sortedIds()
+
+        //Only counted without a result limit, which is the only case that streams
+        val size: Int
+            get() = all?.size ?: 0
+
+        /**
+         * @return the objects kept between positions start and end, without a result limit
+         */
+        fun <T> objects(start: Int, end: Int, source: SourceSnapshot<T>): List<T> {
+            return (start until end).map { source[all!![it]] }
+        }
+
+        inline fun add(id: Int, score: () -> Int) {
+            all?.add(id)
+            best?.offer(id, score())
+        }
+
+        fun addAll(other: KeptIds) {
+            other.all?.also { all?.addAll(it) }
+            other.best?.also { best?.offerAll(it) }
+        }
+    }
+
+    /**
+     * Filter results tagged with the filter generation they were computed for
+     */
+    private class StampedObjects<T>(val generation: Int, val objects: List<T>)
+
+    /**
+     * Object ids kept for a mask, used to refine the next search
+     */
+    private class FilterResult(
+        val mask: String, val source: SourceSnapshot<*>,
+        val maxEdits: Int, val ids: IntArray
+    )
+
+    companion object {
+        /**
+         * Number of mask characters needed for each typo allowed by fuzzy matching
+         */
+        const val FUZZY_CHARS_PER_EDIT = 3
+
+        //Number of objects to check between looking for a newer constraint
+        private const val CANCELLATION_CHECK_INTERVAL = 64
+        //Smallest number of objects worth handing to another thread
+        private const val MIN_CHUNK_SIZE = 1024
+        private val PARALLELISM = Runtime.getRuntime().availableProcessors()
+
+        //Shared by all adapters. The filtering thread handles one chunk itself
+        private val parallelExecutor: ExecutorService by lazy {
+            Executors.newFixedThreadPool((PARALLELISM - 1).coerceAtLeast(1), object : ThreadFactory {
+                private val count = AtomicInteger()
+                override fun newThread(runnable: Runnable): Thread {
+                    return Thread(runnable, "FilteredArrayAdapter-" + count.incrementAndGet()).apply {
+                        isDaemon = true
+                    }
+                }
+            })
         }
     }
 }
\ No newline at end of file
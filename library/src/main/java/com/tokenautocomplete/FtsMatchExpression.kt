@@ -0,0 +1,23 @@
+package com.tokenautocomplete
+
+/**
+ * Turns constraints typed by the user into match expressions for an SQLite FTS table
+ */
+internal object FtsMatchExpression {
+    private val WORD_SEPARATORS = Regex("[^\\p{L}\\p{N}]+")
+
+    /**
+     * Build a prefix query that requires every word of the constraint. Each word is quoted, so
+     * words like OR, AND, NOT or NEAR are searched for instead of being read as operators.
+     *
+     * @return the match expression, null for an empty constraint that lists every row, or
+     * an empty string if the constraint has no searchable characters
+     */
+    @JvmStatic
+    fun build(constraint: CharSequence?): String? {
+        if (constraint.isNullOrEmpty()) return null
+        val words = constraint.split(WORD_SEPARATORS).filter { it.isNotEmpty() }
+        //FTS4 expects the prefix marker inside the quotes
+        return words.joinToString(" ") { "\"$it*\"" }
+    }
+}
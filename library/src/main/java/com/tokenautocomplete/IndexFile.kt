@@ -0,0 +1,174 @@
+package com.tokenautocomplete
+
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * Binary file holding a [KeyStore] and the [PrefixIndex] built from it
+ *
+ * The file starts with a header describing the data, followed by the arrays of the key store and
+ * the index exactly as they are held in memory. Loading maps the file and wraps the arrays in
+ * buffer views of the mapping, so nothing is parsed or allocated per key. The payload is checked
+ * against a CRC32 checksum before it is used.
+ *
+ * A file is only used if it was written with the same format version, data version, number of
+ * objects and locale. Otherwise [load] returns null, and the caller should build the keys and
+ * [save] them again.
+ *
+ * @param file file in app storage to read and write
+ * @param dataVersion version of the objects the keys are built from, chosen by the app
+ */
+internal class IndexFile(private val file: File, private val dataVersion: Long) {
+
+    /**
+     * @param objectCount number of objects the keys have to be for
+     * @param locale tag of the locale the keys have to be normalized with
+     * @return the saved keys and index, or null if the file is missing, stale or corrupt
+     */
+    fun load(objectCount: Int, locale: String): Loaded? {
+        if (!file.exists()) return null
+        return try {
+            RandomAccessFile(file, "r").use { input ->
+                //The mapping stays valid after the channel is closed
+                val buffer = input.channel.map(FileChannel.MapMode.READ_ONLY, 0, input.length())
+                read(buffer.order(ByteOrder.LITTLE_ENDIAN), objectCount, locale)
+            }
+        } catch (ex: IOException) {
+            null
+        } catch (ex: RuntimeException) {
+            //Truncated or garbled sections fail with buffer bounds exceptions
+            null
+        }
+    }
+
+    /**
+     * Write keys and index to the file, replacing it once the new file is complete
+     *
+     * @return false if the file could not be written
+     */
+    fun save(keys: KeyStore, index: PrefixIndex, locale: String): Boolean {
+        val localeChars = locale.toCharArray()
+        val sections = intArrayOf(
+            localeChars.size * 2,
+            keys.chars.limit() * 2,
+            keys.keyStarts.limit() * 4,
+            keys.objectKeys.limit() * 4,
+            keys.keyless.limit(),
+            index.keys.limit() * 4,
+            index.ids.limit() * 4
+        )
+        val payload = ByteBuffer.allocate(sections.sumOf { align(it) }).order(ByteOrder.LITTLE_ENDIAN)
+        section(payload) { localeChars.forEach { payload.putChar(it) } }
+        section(payload) { for (i in 0 until keys.chars.limit()) payload.putChar(keys.chars[i]) }
+        section(payload) { for (i in 0 until keys.keyStarts.limit()) payload.putInt(keys.keyStarts[i]) }
+        section(payload) { for (i in 0 until keys.objectKeys.limit()) payload.putInt(keys.objectKeys[i]) }
+        section(payload) { for (i in 0 until keys.keyless.limit()) payload.put(keys.keyless[i]) }
+        section(payload) { for (i in 0 until index.keys.limit()) payload.putInt(index.keys[i]) }
+        section(payload) { for (i in 0 until index.ids.limit()) payload.putInt(index.ids[i]) }
+
+        val header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        header.putInt(MAGIC)
+        header.putInt(FORMAT_VERSION)
+        header.putLong(dataVersion)
+        header.putLong(checksum(payload))
+        header.putInt(localeChars.size)
+        header.putInt(keys.objectCount)
+        header.putInt(keys.keyCount)
+        header.putInt(keys.chars.limit())
+        header.putInt(index.size)
+        header.rewind()
+        payload.flip()
+
+        val temporary = File(file.path + ".tmp")
+        return try {
+            RandomAccessFile(temporary, "rw").use { output ->
+                output.setLength(0)
+                val buffers = arrayOf(header, payload)
+                while (payload.hasRemaining()) {
+                    output.channel.write(buffers)
+                }
+            }
+            temporary.renameTo(file)
+        } catch (ex: IOException) {
+            temporary.delete()
+            false
+        }
+    }
+
+    private fun read(buffer: ByteBuffer, objectCount: Int, locale: String): Loaded? {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null
+        if (buffer.getLong() != dataVersion) return null
+        val checksum = buffer.getLong()
+        val localeLength = buffer.getInt()
+        val savedObjectCount = buffer.getInt()
+        val keyCount = buffer.getInt()
+        val charCount = buffer.getInt()
+        val indexSize = buffer.getInt()
+        if (savedObjectCount != objectCount) return null
+
+        buffer.position(HEADER_SIZE)
+        if (checksum(buffer.slice()) != checksum) return null
+        val savedLocale = slice(buffer, localeLength * 2).asCharBuffer().toString()
+        if (savedLocale != locale) return null
+        val keys = KeyStore(
+            slice(buffer, charCount * 2).asCharBuffer(),
+            slice(buffer, (keyCount + 1) * 4).asIntBuffer(),
+            slice(buffer, (objectCount + 1) * 4).asIntBuffer(),
+            slice(buffer, objectCount)
+        )
+        val index = PrefixIndex(
+            keys,
+            slice(buffer, indexSize * 4).asIntBuffer(),
+            slice(buffer, indexSize * 4).asIntBuffer()
+        )
+        return Loaded(keys, index)
+    }
+
+    class Loaded(val keys: KeyStore, val index: PrefixIndex)
+
+    companion object {
+        private const val MAGIC = 0x54414349 //"TACI"
+        //Increment whenever the layout of the file changes
+        private const val FORMAT_VERSION = 1
+        private const val HEADER_SIZE = 48
+
+        //Sections start on 4 byte boundaries so int views of the mapping stay aligned
+        private fun align(size: Int): Int {
+            return (size + 3) and 3.inv()
+        }
+
+        private inline fun section(payload: ByteBuffer, write: () -> Unit) {
+            write()
+            while (payload.position() % 4 != 0) payload.put(0)
+        }
+
+        /**
+         * @return the next size bytes of buffer as a separate buffer, skipping alignment padding
+         */
+        private fun slice(buffer: ByteBuffer, size: Int): ByteBuffer {
+            val slice = buffer.slice()
+            slice.limit(size)
+            buffer.position(buffer.position() + align(size))
+            return slice.order(ByteOrder.LITTLE_ENDIAN)
+        }
+
+        //CRC32.update(ByteBuffer) needs API 26, so checksum through a small array
+        private fun checksum(buffer: ByteBuffer): Long {
+            val crc = CRC32()
+            val chunk = ByteArray(8192)
+            val source = buffer.duplicate()
+            source.position(0)
+            while (source.hasRemaining()) {
+                val length = source.remaining().coerceAtMost(chunk.size)
+                source.get(chunk, 0, length)
+                crc.update(chunk, 0, length)
+            }
+            return crc.value
+        }
+    }
+}
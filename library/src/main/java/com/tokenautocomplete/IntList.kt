@@ -0,0 +1,57 @@
+package com.tokenautocomplete
+
+/**
+ * Growable list of primitive ints, used to collect object ids without boxing
+ */
+internal class IntList(initialCapacity: Int = 16) {
+    private var values = IntArray(initialCapacity.coerceAtLeast(1))
+
+    var size = 0
+        private set
+
+    operator fun get(position: Int): Int {
+        if (position >= size) throw IndexOutOfBoundsException("$position >= $size")
+        return values[position]
+    }
+
+    fun add(value: Int) {
+        if (size == values.size) {
+            values = values.copyOf(size * 2)
+        }
+        values[size++] = value
+    }
+
+    fun addAll(other: IntList) {
+        if (size + other.size > values.size) {
+            values = values.copyOf((size + other.size).coerceAtLeast(size * 2))
+        }
+        System.arraycopy(other.values, 0, values, size, other.size)
+        size += other.size
+    }
+
+    fun toArray(): IntArray {
+        return values.copyOf(size)
+    }
+
+    companion object {
+        /**
+         * Merge two ascending id arrays, keeping ids found in either of them once
+         */
+        @JvmStatic
+        fun union(first: IntArray, second: IntArray): IntArray {
+            val result = IntArray(first.size + second.size)
+            var i = 0
+            var j = 0
+            var count = 0
+            while (i < first.size || j < second.size) {
+                val value = when {
+                    j == second.size || i < first.size && first[i] < second[j] -> first[i++]
+                    i == first.size || second[j] < first[i] -> second[j++]
+                    else -> first[i++].also { j++ }
+                }
+                result[count++] = value
+            }
+            return result.copyOf(count)
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.tokenautocomplete
+
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.IntBuffer
+
+/**
+ * Normalized search keys for a list of objects, packed into primitive buffers
+ *
+ * The characters of every key are stored one after the other in a single char buffer, with an
+ * offset buffer marking where each key starts and another marking where each object's keys start.
+ * This avoids a String and a List per object, and lets filtering scan contiguous memory. The
+ * buffers wrap arrays when the keys are built, or a mapped file when they are loaded by
+ * [IndexFile].
+ *
+ * Objects are numbered from 0, and keys are numbered from 0 across all objects in object order.
+ */
+internal class KeyStore(
+    val chars: CharBuffer,
+    //Start of every key in chars, followed by the end of the last key
+    val keyStarts: IntBuffer,
+    //First key of every object, followed by the total number of keys
+    val objectKeys: IntBuffer,
+    //1 for objects without search keys, as opposed to objects with an empty list of keys
+    val keyless: ByteBuffer
+) {
+    val objectCount: Int
+        get() = keyless.limit()
+
+    val keyCount: Int
+        get() = keyStarts.limit() - 1
+
+    fun hasKeys(id: Int): Boolean {
+        return keyless[id] == HAS_KEYS
+    }
+
+    /**
+     * @return the first key of the object with id
+     */
+    fun firstKey(id: Int): Int {
+        return objectKeys[id]
+    }
+
+    /**
+     * @return the key after the last key of the object with id
+     */
+    fun endKey(id: Int): Int {
+        return objectKeys[id + 1]
+    }
+
+    fun keyLength(key: Int): Int {
+        return keyStarts[key + 1] - keyStarts[key]
+    }
+
+    fun charAt(key: Int, index: Int): Char {
+        return chars[keyStarts[key] + index]
+    }
+
+    fun keyString(key: Int): String {
+        val start = keyStarts[key]
+        return chars.subSequence(start, start + keyLength(key)).toString()
+    }
+
+    /**
+     * @return the keys of the object with id as strings, or null if it has no keys
+     */
+    fun keys(id: Int): List<String>? {
+        if (!hasKeys(id)) return null
+        return (firstKey(id) until endKey(id)).map { keyString(it) }
+    }
+
+    fun startsWith(key: Int, prefix: String): Boolean {
+        return regionStartsWith(keyStarts[key], keyStarts[key + 1], prefix)
+    }
+
+    /**
+     * @return true if a word of the key starts with word
+     */
+    fun startsWord(key: Int, word: String): Boolean {
+        val start = keyStarts[key]
+        val end = keyStarts[key + 1]
+        for (i in start..end - word.length) {
+            if ((i == start || !chars[i - 1].isLetterOrDigit()) && regionStartsWith(i, end, word)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * @return the edit distance between pattern and the closest prefix of the key, or
+     * maxEdits + 1 if it is larger. See [TrigramIndex.prefixDistance]
+     */
+    fun prefixDistance(pattern: String, key: Int, maxEdits: Int): Int {
+        return TrigramIndex.prefixDistance(pattern, chars, keyStarts[key], keyStarts[key + 1], maxEdits)
+    }
+
+    /**
+     * Compare a key with value the same way as [String.compareTo]
+     */
+    fun compare(key: Int, value: String): Int {
+        val start = keyStarts[key]
+        val length = keyLength(key)
+        for (i in 0 until length.coerceAtMost(value.length)) {
+            val difference = chars[start + i] - value[i]
+            if (difference != 0) return difference
+        }
+        return length - value.length
+    }
+
+    /**
+     * Compare two keys the same way as [String.compareTo]
+     */
+    fun compare(first: Int, second: Int): Int {
+        val firstStart = keyStarts[first]
+        val secondStart = keyStarts[second]
+        val firstLength = keyLength(first)
+        val secondLength = keyLength(second)
+        for (i in 0 until firstLength.coerceAtMost(secondLength)) {
+            val difference = chars[firstStart + i] - chars[secondStart + i]
+            if (difference != 0) return difference
+        }
+        return firstLength - secondLength
+    }
+
+    private fun regionStartsWith(start: Int, end: Int, prefix: String): Boolean {
+        if (end - start < prefix.length) return false
+        for (i in prefix.indices) {
+            if (chars[start + i] != prefix[i]) return false
+        }
+        return true
+    }
+
+    /**
+     * Collects keys object by object, then packs them into a [KeyStore]
+     */
+    class Builder(objectCapacity: Int = 16) {
+        private var chars = CharArray(objectCapacity * 8)
+        private var charCount = 0
+        private val keyStarts = IntList(objectCapacity + 1).apply { add(0) }
+        private val objectKeys = IntList(objectCapacity + 1).apply { add(0) }
+        private var keyless = ByteArray(objectCapacity.coerceAtLeast(1))
+        private var objectCount = 0
+
+        /**
+         * Add the next object
+         *
+         * @param keys normalized keys of the object, or null if it has no keys
+         */
+        fun add(keys: List<String>?): Builder {
+            keys?.forEach { key ->
+                ensureChars(key.length)
+                key.toCharArray(chars, charCount, 0, key.length)
+                charCount += key.length
+                keyStarts.add(charCount)
+            }
+            endObject(keys == null)
+            return this
+        }
+
+        /**
+         * Add the next object with the keys of an object in another store
+         */
+        fun addFrom(store: KeyStore, id: Int): Builder {
+            for (key in store.firstKey(id) until store.endKey(id)) {
+                val start = store.keyStarts[key]
+                val length = store.keyLength(key)
+                ensureChars(length)
+                for (i in 0 until length) {
+                    chars[charCount + i] = store.chars[start + i]
+                }
+                charCount += length
+                keyStarts.add(charCount)
+            }
+            endObject(!store.hasKeys(id))
+            return this
+        }
+
+        fun build(): KeyStore {
+            return KeyStore(
+                CharBuffer.wrap(chars.copyOf(charCount)),
+                IntBuffer.wrap(keyStarts.toArray()),
+                IntBuffer.wrap(objectKeys.toArray()),
+                ByteBuffer.wrap(keyless.copyOf(objectCount))
+            )
+        }
+
+        private fun endObject(isKeyless: Boolean) {
+            if (objectCount == keyless.size) {
+                keyless = keyless.copyOf(objectCount * 2)
+            }
+            keyless[objectCount++] = if (isKeyless) KEYLESS else HAS_KEYS
+            objectKeys.add(keyStarts.size - 1)
+        }
+
+        private fun ensureChars(extra: Int) {
+            if (charCount + extra > chars.size) {
+                chars = chars.copyOf((charCount + extra).coerceAtLeast(chars.size * 2))
+            }
+        }
+    }
+
+    companion object {
+        //Values of keyless, as saved by IndexFile
+        private const val HAS_KEYS: Byte = 0
+        private const val KEYLESS: Byte = 1
+
+        @JvmStatic
+        fun of(objectKeys: List<List<String>?>): KeyStore {
+            val builder = Builder(objectKeys.size)
+            objectKeys.forEach { builder.add(it) }
+            return builder.build()
+        }
+    }
+}
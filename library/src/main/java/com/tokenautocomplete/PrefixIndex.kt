@@ -0,0 +1,127 @@
+package com.tokenautocomplete
+
+import java.nio.IntBuffer
+import java.util.*
+
+/**
+ * Sorted search key index that answers prefix queries with a binary search
+ *
+ * Every search key is stored next to the id (position in the source list) of the object it
+ * was extracted from. A prefix lookup finds the first key that could match and walks forward
+ * until keys stop matching, so a query costs O(log n + k) instead of a full scan. Keys are
+ * referenced by their number in a [KeyStore] rather than copied.
+ */
+internal class PrefixIndex(
+    private val store: KeyStore,
+    //Key numbers in sorted key order
+    val keys: IntBuffer,
+    //Object id of each key in keys
+    val ids: IntBuffer
+) {
+    /**
+     * Number of keys held in the index
+     */
+    val size: Int
+        get() = keys.limit()
+
+    /**
+     * Find all objects with at least one key starting with prefix
+     *
+     * @param prefix already normalized prefix to look for
+     * @return ids of matching objects in ascending order, without duplicates
+     */
+    fun find(prefix: String): IntArray {
+        var matches = IntArray(16)
+        var count = 0
+        var position = lowerBound(prefix)
+        while (position < size && store.startsWith(keys[position], prefix)) {
+            if (count == matches.size) {
+                matches = matches.copyOf(count * 2)
+            }
+            matches[count++] = ids[position]
+            position++
+        }
+        return distinctSorted(matches, count)
+    }
+
+    /**
+     * Find candidates for a prefix typed with one typo, for prefixes too short to look up in a
+     * [TrigramIndex]: objects with a key starting with the first or the second character of
+     * prefix. These include every key within one edit of prefix, unless the typo replaced the
+     * first character or left it out. Candidates still have to be checked with
+     * [TrigramIndex.prefixDistance].
+     *
+     * @param prefix already normalized prefix, at least two characters long
+     * @return ids of candidate objects in ascending order, without duplicates
+     */
+    fun findWithTypo(prefix: String): IntArray {
+        return IntList.union(find(prefix.substring(0, 1)), find(prefix.substring(1, 2)))
+    }
+
+    /**
+     * @return the first position with a key that is not smaller than value
+     */
+    private fun lowerBound(value: String): Int {
+        var low = 0
+        var high = size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (store.compare(keys[middle], value) < 0) {
+                low = middle + 1
+            } else {
+                high = middle
+            }
+        }
+        return low
+    }
+
+    companion object {
+        /**
+         * Build an index from per object search keys
+         *
+         * @param objectKeys normalized search keys for each object, indexed by object id.
+         * Objects with null keys are left out of the index
+         * @return the index
+         */
+        @JvmStatic
+        fun build(objectKeys: List<List<String>?>): PrefixIndex {
+            return build(KeyStore.of(objectKeys))
+        }
+
+        /**
+         * Build an index from the keys in a key store
+         */
+        @JvmStatic
+        fun build(store: KeyStore): PrefixIndex {
+            val keyIds = IntArray(store.keyCount)
+            for (id in 0 until store.objectCount) {
+                for (key in store.firstKey(id) until store.endKey(id)) {
+                    keyIds[key] = id
+                }
+            }
+            //Keys are numbered in object order, so ties on the key keep ids ascending
+            val sorted = Array(store.keyCount) { it }
+            sorted.sortWith { a, b ->
+                val result = store.compare(a, b)
+                if (result != 0) result else a.compareTo(b)
+            }
+            return PrefixIndex(
+                store,
+                IntBuffer.wrap(IntArray(sorted.size) { sorted[it] }),
+                IntBuffer.wrap(IntArray(sorted.size) { keyIds[sorted[it]] })
+            )
+        }
+
+        private fun distinctSorted(values: IntArray, count: Int): IntArray {
+            if (count == 0) return IntArray(0)
+            Arrays.sort(values, 0, count)
+            var distinct = 1
+            for (i in 1 until count) {
+                if (values[i] != values[distinct - 1]) {
+                    values[distinct++] = values[i]
+                }
+            }
+            return values.copyOf(distinct)
+        }
+    }
+}
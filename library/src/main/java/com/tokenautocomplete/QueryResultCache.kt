@@ -0,0 +1,88 @@
+package com.tokenautocomplete
+
+/**
+ * Bounded LRU cache from normalized query to the ids of the objects it matched
+ *
+ * The cache is limited both by number of entries and by an estimate of the memory the entries
+ * use. Calling [clear] also discards any result computed before the clear, so a filter pass
+ * that was running while the source data changed can't put stale results back in. Entries
+ * remember the source their ids refer to, so a filter pass that already sees new source data
+ * before the cache is cleared doesn't read ids of the old data.
+ *
+ * @param maxEntries maximum number of queries to remember
+ * @param maxBytes approximate maximum memory used by cached entries
+ */
+internal class QueryResultCache(private val maxEntries: Int, private val maxBytes: Long) {
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private var bytes = 0L
+
+    /**
+     * Incremented every time the cache is cleared
+     */
+    @Volatile
+    var version = 0
+        private set
+
+    @Volatile
+    var hitCount = 0L
+        private set
+    @Volatile
+    var missCount = 0L
+        private set
+
+    /**
+     * @param query normalized query
+     * @param source the source the ids have to refer to
+     * @return the cached entry, or null if the query is not cached for source
+     */
+    @Synchronized
+    fun get(query: String, source: Any): Entry? {
+        val entry = entries[query]?.takeIf { it.source === source }
+        if (entry == null) missCount++ else hitCount++
+        return entry
+    }
+
+    /**
+     * Cache the result of a query, unless the cache was cleared after version was read
+     *
+     * @param query normalized query
+     * @param source the source ids refer to
+     * @param ids ids matching the query
+     * @param complete false if ids were truncated to a result limit
+     * @param version the cache version when the result was computed
+     */
+    @Synchronized
+    fun put(query: String, source: Any, ids: IntArray, complete: Boolean, version: Int) {
+        if (version != this.version) return
+        val entry = Entry(source, ids, complete, estimateBytes(query, ids))
+        if (entry.bytes > maxBytes) return
+        entries.put(query, entry)?.also { bytes -= it.bytes }
+        bytes += entry.bytes
+        val iterator = entries.values.iterator()
+        while (entries.size > maxEntries || bytes > maxBytes) {
+            bytes -= iterator.next().bytes
+            iterator.remove()
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        bytes = 0
+        version++
+    }
+
+    val size: Int
+        @Synchronized get() = entries.size
+
+    class Entry(val source: Any, val ids: IntArray, val complete: Boolean, val bytes: Long)
+
+    companion object {
+        //Rough per entry cost of the map node, entry, array and string headers
+        private const val ENTRY_OVERHEAD = 96L
+
+        private fun estimateBytes(query: String, ids: IntArray): Long {
+            return ENTRY_OVERHEAD + query.length * 2L + ids.size * 4L
+        }
+    }
+}
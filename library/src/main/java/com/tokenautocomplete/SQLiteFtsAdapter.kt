@@ -0,0 +1,285 @@
+package com.tokenautocomplete
+
+import android.content.Context
+import android.database.Cursor
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.widget.BaseAdapter
+import android.widget.Filter
+import android.widget.Filterable
+import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Adapter that finds suggestions with prefix queries on an SQLite FTS table instead of keeping
+ * every object in memory
+ *
+ * Filtering counts the matching rows and loads the first page on the filter thread. Other rows
+ * are loaded a page at a time with LIMIT/OFFSET on a background thread when the list gets close
+ * to them, and objects are only built with [objectForRow] for rows in loaded pages, so memory
+ * use depends on what is displayed rather than on the size of the table. Recently used pages
+ * are cached. Until its page is loaded, [getItem] returns null for a row, so getView should
+ * show a placeholder for it. The list is notified when the page arrives.
+ *
+ * Create the table with [createTable] and fill it with regular inserts. Every word of the
+ * constraint must match the start of a word in the row for the row to be suggested.
+ *
+ * @param context The current context.
+ * @param database database holding the FTS table
+ * @param table name of the FTS table
+ * @param pageSize number of rows to load at a time
+ * @param maxResults maximum number of matching rows to make available to the list
+ */
+abstract class SQLiteFtsAdapter<T>(
+    protected val context: Context,
+    private val database: SQLiteDatabase,
+    private val table: String,
+    private val pageSize: Int,
+    private val maxResults: Int
+) : BaseAdapter(), Filterable {
+    private var filter: Filter? = null
+    //Match expression for the displayed results, null to list every row
+    private var matchExpression: String? = null
+    private var resultCount = 0
+    private val pages = object : LinkedHashMap<Int, Page<T>>(PAGE_CACHE_SIZE, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, Page<T>>): Boolean {
+            return size > PAGE_CACHE_SIZE
+        }
+    }
+    //Pages being loaded for the displayed results
+    private val loadingPages = HashSet<Int>()
+    //Changed every time new results are displayed, so pages loaded for older ones are dropped
+    private var resultGeneration = 0
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    /**
+     * Constructor
+     *
+     * @param context The current context.
+     * @param database database holding the FTS table
+     * @param table name of the FTS table
+     */
+    constructor(context: Context, database: SQLiteDatabase, table: String) : this(
+        context,
+        database,
+        table,
+        DEFAULT_PAGE_SIZE,
+        DEFAULT_MAX_RESULTS
+    )
+
+    /**
+     * Build the object for the row the cursor is on. The cursor contains the rowid followed by
+     * every column of the table. Called on the filter thread or the page loading thread.
+     *
+     * @param cursor cursor positioned on the row
+     * @return the object for the row
+     */
+    protected abstract fun objectForRow(cursor: Cursor): T
+
+    override fun getCount(): Int {
+        return resultCount
+    }
+
+    /**
+     * @return the object at position, or null if its page is still loading
+     */
+    override fun getItem(position: Int): T? {
+        val page = getPage(position) ?: return null
+        return page.objects[position % pageSize]
+    }
+
+    /**
+     * @return the rowid of the row at position, or -1 if its page is still loading
+     */
+    override fun getItemId(position: Int): Long {
+        val page = getPage(position) ?: return -1
+        return page.rowIds[position % pageSize]
+    }
+
+    override fun getFilter(): Filter {
+        if (filter == null) filter = FtsFilter()
+        return filter!!
+    }
+
+    /**
+     * @return the loaded page holding position, or null if it is loading. Starts loading the
+     * page, or the next one when position is close to its end.
+     */
+    private fun getPage(position: Int): Page<T>? {
+        val index = position / pageSize
+        val page = pages[index]
+        if (page == null) {
+            requestPage(index)
+        } else if (position % pageSize >= pageSize - PREFETCH_DISTANCE &&
+            (index + 1) * pageSize < resultCount && !pages.containsKey(index + 1)) {
+            requestPage(index + 1)
+        }
+        return page
+    }
+
+    private fun requestPage(index: Int) {
+        if (!loadingPages.add(index)) return
+        val match = matchExpression
+        val generation = resultGeneration
+        pageLoader.execute {
+            val page = try {
+                loadPage(match, index)
+            } catch (ex: RuntimeException) {
+                //Like a closed database. Rows stay placeholders, but can be requested again
+                Log.w(TAG, "Unable to load page $index", ex)
+                null
+            }
+            mainHandler.post {
+                if (generation != resultGeneration) return@post
+                loadingPages.remove(index)
+                if (page != null) {
+                    pages[index] = page
+                    notifyDataSetChanged()
+                }
+            }
+        }
+    }
+
+    private fun loadPage(match: String?, index: Int): Page<T> {
+        val limit = pageSize.coerceAtMost(maxResults - index * pageSize)
+        val offset = index * pageSize
+        val cursor = if (match == null) {
+            database.rawQuery(
+                "SELECT rowid, * FROM $table ORDER BY rowid LIMIT $limit OFFSET $offset",
+                null
+            )
+        } else {
+            database.rawQuery(
+                "SELECT rowid, * FROM $table WHERE $table MATCH ? ORDER BY rowid LIMIT $limit OFFSET $offset",
+                arrayOf(match)
+            )
+        }
+        try {
+            val objects = ArrayList<T>(cursor.count)
+            val rowIds = LongArray(cursor.count)
+            while (cursor.moveToNext()) {
+                rowIds[cursor.position] = cursor.getLong(0)
+                objects.add(objectForRow(cursor))
+            }
+            return Page(objects, rowIds)
+        } finally {
+            //Cursor is only Closeable from API 16
+            cursor.close()
+        }
+    }
+
+    private fun countRows(match: String?): Int {
+        val count = if (match == null) {
+            DatabaseUtils.longForQuery(
+                database,
+                "SELECT count(*) FROM (SELECT rowid FROM $table LIMIT $maxResults)",
+                null
+            )
+        } else {
+            DatabaseUtils.longForQuery(
+                database,
+                "SELECT count(*) FROM (SELECT rowid FROM $table WHERE $table MATCH ? LIMIT $maxResults)",
+                arrayOf(match)
+            )
+        }
+        return count.toInt()
+    }
+
+    /**
+     * Filter that counts matches and loads the first page of results on the filter thread
+     */
+    private inner class FtsFilter : Filter(), CancellableFilter {
+        private val generation = AtomicInteger()
+
+        override fun cancelFiltering() {
+            generation.incrementAndGet()
+        }
+
+        override fun performFiltering(constraint: CharSequence?): FilterResults {
+            val startGeneration = generation.get()
+            val match = FtsMatchExpression.build(constraint)
+            val results = FilterResults()
+            //Skip the queries if the constraint is empty or a newer one is already queued
+            if (match != "" && startGeneration == generation.get()) {
+                results.count = countRows(match)
+            }
+            val firstPage = if (results.count > 0 && startGeneration == generation.get()) {
+                loadPage(match, 0)
+            } else {
+                null
+            }
+            results.values = FtsResults(startGeneration, match, firstPage)
+            return results
+        }
+
+        override fun publishResults(constraint: CharSequence?, results: FilterResults) {
+            @Suppress("unchecked_cast")
+            val ftsResults = results.values as FtsResults<T>
+            if (ftsResults.generation != generation.get()) {
+                //Never show results for a constraint that has been replaced by a newer one
+                results.count = resultCount
+                return
+            }
+            matchExpression = ftsResults.match
+            resultCount = results.count
+            resultGeneration++
+            loadingPages.clear()
+            pages.clear()
+            ftsResults.firstPage?.also { pages[0] = it }
+            if (resultCount > 0) {
+                notifyDataSetChanged()
+            } else {
+                notifyDataSetInvalidated()
+            }
+        }
+
+        override fun convertResultToString(resultValue: Any?): CharSequence {
+            return resultValue?.toString() ?: ""
+        }
+    }
+
+    /**
+     * Loaded objects and their row ids for one page of results
+     */
+    private class Page<T>(val objects: List<T>, val rowIds: LongArray)
+
+    /**
+     * Filter results tagged with the filter generation they were computed for
+     */
+    private class FtsResults<T>(val generation: Int, val match: String?, val firstPage: Page<T>?)
+
+    companion object {
+        const val DEFAULT_PAGE_SIZE = 50
+        const val DEFAULT_MAX_RESULTS = 1000
+        private const val PAGE_CACHE_SIZE = 4
+        //Rows from the end of a page at which the next page starts loading
+        private const val PREFETCH_DISTANCE = 10
+        private const val TAG = "SQLiteFtsAdapter"
+
+        //Shared by all adapters, so pages are loaded one at a time
+        private val pageLoader: ExecutorService by lazy {
+            Executors.newSingleThreadExecutor { runnable ->
+                Thread(runnable, "SQLiteFtsAdapter").apply { isDaemon = true }
+            }
+        }
+
+        /**
+         * Create an FTS4 table that can be used with this adapter
+         *
+         * @param database the database to create the table in
+         * @param table name of the table
+         * @param columns names of the columns. All columns are searchable
+         */
+        @JvmStatic
+        fun createTable(database: SQLiteDatabase, table: String, columns: List<String>) {
+            database.execSQL(
+                "CREATE VIRTUAL TABLE IF NOT EXISTS $table USING fts4(${columns.joinToString(", ")})"
+            )
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.tokenautocomplete
+
+import java.text.Normalizer
+import java.util.*
+
+/**
+ * Folds search keys and masks into a canonical form for matching
+ *
+ * Normalized strings are lower case for the given locale and have accents and other combining
+ * marks removed, so "Zoë" and "zoe" normalize to the same value.
+ *
+ * @param locale locale used for case folding
+ */
+class SearchKeyNormalizer(val locale: Locale) {
+
+    /**
+     * @param value the string to normalize
+     * @return the normalized string
+     */
+    fun normalize(value: String): String {
+        var ascii = true
+        for (c in value) {
+            if (c.code >= 0x80) {
+                ascii = false
+                break
+            }
+        }
+        if (ascii) {
+            //Nothing to decompose, skip the more expensive path
+            return value.lowercase(locale)
+        }
+
+        val decomposed = Normalizer.normalize(value, Normalizer.Form.NFD)
+        val stripped = StringBuilder(decomposed.length)
+        for (c in decomposed) {
+            if (Character.getType(c) != Character.NON_SPACING_MARK.toInt()) {
+                stripped.append(c)
+            }
+        }
+        return stripped.toString().lowercase(locale)
+    }
+}
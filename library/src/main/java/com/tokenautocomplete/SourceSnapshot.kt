@@ -0,0 +1,302 @@
+package com.tokenautocomplete
+
+import java.util.*
+
+/**
+ * Immutable state of the objects filtered by [FilteredArrayAdapter], with their normalized
+ * search keys and search indexes
+ *
+ * Every object has a stable id, its position in the order objects were added. Changes return a
+ * new snapshot that shares unchanged storage with this one, so a filter pass keeps reading the
+ * snapshot it started with. Removed objects leave an empty slot until there are enough of them
+ * to compact the ids.
+ *
+ * Search keys are packed in a [KeyStore]. The keys and indexes are built lazily from the first
+ * snapshot of an index generation and shared with the snapshots derived from it. Ids added or
+ * updated since then are listed in [changes], with their keys in [changedKeys], and have to be
+ * checked in addition to index results. Once there are too many changes, the next snapshot
+ * starts a new generation with the keys merged into one store, and its indexes are rebuilt when
+ * they are next needed.
+ */
+internal class SourceSnapshot<T> private constructor(
+    private val objects: ChunkedList<Any?>,
+    private val removedCount: Int,
+    val normalizer: SearchKeyNormalizer,
+    private val searchKeys: (T) -> List<String>?,
+    indexes: Indexes?,
+    /**
+     * Ids added or updated since the indexes were built, in ascending order
+     */
+    val changes: IntArray,
+    /**
+     * Keys of the objects in [changes], in the same order
+     */
+    val changedKeys: KeyStore
+) {
+    private val indexes = indexes ?: Indexes(this)
+
+    /**
+     * Number of ids in use, including removed ones
+     */
+    val size: Int
+        get() = objects.size
+
+    /**
+     * Number of objects that have not been removed
+     */
+    val count: Int
+        get() = objects.size - removedCount
+
+    fun isLive(id: Int): Boolean {
+        return objects[id] !== REMOVED
+    }
+
+    /**
+     * @return the object with id, which must not have been removed
+     */
+    operator fun get(id: Int): T {
+        @Suppress("unchecked_cast")
+        return objects[id] as T
+    }
+
+    /**
+     * @return the objects that have not been removed, in id order, up to limit objects or all of
+     * them if limit is -1
+     */
+    fun liveObjects(limit: Int): ArrayList<T> {
+        val result = ArrayList<T>(if (limit == -1) count else limit.coerceAtMost(count))
+        for (id in 0 until size) {
+            if (result.size == limit) break
+            if (isLive(id)) result.add(get(id))
+        }
+        return result
+    }
+
+    /**
+     * @return the id of the first live object equal to obj, or -1
+     */
+    fun indexOf(obj: T): Int {
+        for (id in 0 until size) {
+            if (isLive(id) && get(id) == obj) return id
+        }
+        return -1
+    }
+
+    /**
+     * Keys of the objects in the first snapshot of the index generation. Keys of ids in
+     * [changes] have to be read from [changedKeys] instead
+     */
+    fun baseKeys(): KeyStore {
+        return indexes.keys ?: indexes.loadOrBuildKeys().also { indexes.keys = it }
+    }
+
+    /**
+     * @return the position of id in [changes], or -1 if its keys are in [baseKeys]
+     */
+    fun changeIndex(id: Int): Int {
+        if (changes.isEmpty()) return -1
+        return Arrays.binarySearch(changes, id).coerceAtLeast(-1)
+    }
+
+    /**
+     * @return the normalized keys of the object with id as strings, or null if it has no keys
+     */
+    fun keysOf(id: Int): List<String>? {
+        val change = changeIndex(id)
+        return if (change == -1) baseKeys().keys(id) else changedKeys.keys(change)
+    }
+
+    fun prefixIndex(): PrefixIndex {
+        return indexes.prefix ?: PrefixIndex.build(baseKeys()).also { indexes.prefix = it }
+    }
+
+    fun wordStartIndex(): WordStartIndex {
+        return indexes.wordStart ?: WordStartIndex.build(baseKeys()).also { indexes.wordStart = it }
+    }
+
+    fun trigramIndex(): TrigramIndex {
+        return indexes.trigram ?: TrigramIndex.build(baseKeys()).also { indexes.trigram = it }
+    }
+
+    /**
+     * Let go of indexes that are no longer used. They are rebuilt if they are needed again
+     */
+    fun releaseIndexes(prefix: Boolean, wordStart: Boolean, trigram: Boolean) {
+        if (prefix) indexes.prefix = null
+        if (wordStart) indexes.wordStart = null
+        if (trigram) indexes.trigram = null
+    }
+
+    /**
+     * @return a snapshot with objects added after the existing ones
+     */
+    fun plus(added: Collection<T>): SourceSnapshot<T> {
+        val addedIds = IntArray(added.size) { size + it }
+        return next(objects.appended(added), removedCount, addedIds, added.map { normalizedKeys(it) })
+    }
+
+    /**
+     * @return a snapshot without the object with id
+     */
+    fun minus(id: Int): SourceSnapshot<T> {
+        //Removed ids are skipped before their keys are read, so the keys can stay
+        return next(objects.replaced(id, REMOVED), removedCount + 1, IntArray(0), emptyList())
+    }
+
+    /**
+     * @return a snapshot where obj replaces the object with id, keeping its position
+     */
+    fun replaced(id: Int, obj: T): SourceSnapshot<T> {
+        return next(objects.replaced(id, obj), removedCount, intArrayOf(id), listOf(normalizedKeys(obj)))
+    }
+
+    /**
+     * @return a snapshot of the same objects with keys normalized by normalizer
+     */
+    fun withNormalizer(normalizer: SearchKeyNormalizer): SourceSnapshot<T> {
+        val snapshot = SourceSnapshot(
+            objects, removedCount, normalizer, searchKeys, null, changes, changedKeys
+        ).rebased(null)
+        snapshot.indexes.file = indexes.file
+        return snapshot
+    }
+
+    /**
+     * @return a snapshot of the same objects that loads its keys and prefix index from file,
+     * or saves them there after building them. Keys already built are only carried over without
+     * a file, otherwise they would never go through it.
+     */
+    fun withIndexFile(file: IndexFile?): SourceSnapshot<T> {
+        val snapshot = if (file == null) {
+            rebased(null)
+        } else {
+            SourceSnapshot(objects, removedCount, normalizer, searchKeys, null, IntArray(0), EMPTY_KEYS)
+        }
+        snapshot.indexes.file = file
+        return snapshot
+    }
+
+    private fun next(
+        objects: ChunkedList<Any?>, removedCount: Int,
+        changedIds: IntArray, changedIdKeys: List<List<String>?>
+    ): SourceSnapshot<T> {
+        //Merge the new changes into the existing ones, newer keys win
+        val mergedIds = IntList(changes.size + changedIds.size)
+        val mergedKeys = KeyStore.Builder(changes.size + changedIds.size)
+        var i = 0
+        var j = 0
+        while (i < changes.size || j < changedIds.size) {
+            if (j == changedIds.size || i < changes.size && changes[i] < changedIds[j]) {
+                mergedIds.add(changes[i])
+                mergedKeys.addFrom(changedKeys, i++)
+            } else {
+                if (i < changes.size && changes[i] == changedIds[j]) i++
+                mergedIds.add(changedIds[j])
+                mergedKeys.add(changedIdKeys[j++])
+            }
+        }
+        val snapshot = SourceSnapshot(
+            objects, removedCount, normalizer, searchKeys,
+            indexes, mergedIds.toArray(), mergedKeys.build()
+        )
+        return if (removedCount > COMPACTION_MIN_REMOVED && removedCount > objects.size / 2) {
+            snapshot.rebased((0 until objects.size).filter { snapshot.isLive(it) })
+        } else if (mergedIds.size > (objects.size / MAX_CHANGES_RATIO).coerceAtLeast(MIN_MAX_CHANGES)) {
+            snapshot.rebased(null)
+        } else {
+            snapshot
+        }
+    }
+
+    /**
+     * Start a new index generation, carrying over the keys if they were already built
+     *
+     * @param liveIds ids to keep, giving them new ids in order, or null to keep every id
+     */
+    private fun rebased(liveIds: List<Int>?): SourceSnapshot<T> {
+        val newObjects = liveIds?.let { ids -> ChunkedList.of(ids.map { objects[it] }) } ?: objects
+        val snapshot = SourceSnapshot(
+            newObjects, if (liveIds == null) removedCount else 0, normalizer, searchKeys,
+            null, IntArray(0), EMPTY_KEYS
+        )
+        val keys = indexes.keys
+        if (keys != null) {
+            val ids = liveIds ?: (0 until size).toList()
+            val builder = KeyStore.Builder(ids.size)
+            for (id in ids) {
+                val change = changeIndex(id)
+                when {
+                    !isLive(id) -> builder.add(null)
+                    change == -1 -> builder.addFrom(keys, id)
+                    else -> builder.addFrom(changedKeys, change)
+                }
+            }
+            snapshot.indexes.keys = builder.build()
+        }
+        return snapshot
+    }
+
+    private fun buildKeys(): KeyStore {
+        val builder = KeyStore.Builder(size)
+        for (id in 0 until size) {
+            builder.add(if (isLive(id)) normalizedKeys(get(id)) else null)
+        }
+        return builder.build()
+    }
+
+    private fun normalizedKeys(obj: T): List<String>? {
+        return searchKeys(obj)?.map { normalizer.normalize(it) }
+    }
+
+    /**
+     * Keys and indexes shared by the snapshots of one generation, built from base
+     */
+    private class Indexes(val base: SourceSnapshot<*>) {
+        @Volatile
+        var file: IndexFile? = null
+        @Volatile
+        var keys: KeyStore? = null
+        @Volatile
+        var prefix: PrefixIndex? = null
+        @Volatile
+        var wordStart: WordStartIndex? = null
+        @Volatile
+        var trigram: TrigramIndex? = null
+
+        fun loadOrBuildKeys(): KeyStore {
+            val file = file ?: return base.buildKeys()
+            val locale = base.normalizer.locale.toString()
+            file.load(base.size, locale)?.also { loaded ->
+                if (prefix == null) prefix = loaded.index
+                return loaded.keys
+            }
+            val keys = base.buildKeys()
+            val index = PrefixIndex.build(keys).also { if (prefix == null) prefix = it }
+            //A failed save only means the keys are built again on the next launch
+            file.save(keys, index, locale)
+            return keys
+        }
+    }
+
+    companion object {
+        //Marks the slot of a removed object
+        private val REMOVED = Any()
+        private val EMPTY_KEYS = KeyStore.Builder().build()
+        //Changes are checked one by one, so rebuild indexes once there are more than
+        //1/MAX_CHANGES_RATIO of the objects, or MIN_MAX_CHANGES for small sources
+        private const val MAX_CHANGES_RATIO = 16
+        private const val MIN_MAX_CHANGES = 256
+        private const val COMPACTION_MIN_REMOVED = 1024
+
+        @JvmStatic
+        fun <T> of(
+            objects: Collection<T>,
+            normalizer: SearchKeyNormalizer,
+            searchKeys: (T) -> List<String>?
+        ): SourceSnapshot<T> {
+            return SourceSnapshot(
+                ChunkedList.of<Any?>(objects), 0, normalizer, searchKeys, null, IntArray(0), EMPTY_KEYS
+            )
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.tokenautocomplete
+
+import android.content.Context
+import android.widget.ArrayAdapter
+import android.widget.Filter
+
+/**
+ * ArrayAdapter for suggestions that come from a [SuggestionSource]
+ *
+ * TokenCompleteTextView replaces the contents with [setSuggestions] when a response arrives.
+ * The adapter's own Filter does nothing, so the suggestions are never filtered again locally.
+ *
+ * @param context The current context.
+ * @param resource The resource ID for a layout file containing a layout to use when
+ * instantiating views.
+ * @param textViewResourceId The id of the TextView within the layout resource to be populated
+ */
+open class SuggestionAdapter<T>(
+    context: Context,
+    resource: Int,
+    textViewResourceId: Int
+) : ArrayAdapter<T>(context, resource, textViewResourceId, ArrayList()) {
+    private val filter = PassiveFilter()
+
+    /**
+     * Constructor
+     *
+     * @param context The current context.
+     * @param resource The resource ID for a layout file containing a TextView to use when
+     * instantiating views.
+     */
+    constructor(context: Context, resource: Int) : this(context, resource, 0)
+
+    /**
+     * Replace the displayed suggestions
+     *
+     * @param suggestions the new suggestions
+     */
+    fun setSuggestions(suggestions: List<T>) {
+        setNotifyOnChange(false)
+        clear()
+        addAll(suggestions)
+        if (suggestions.isNotEmpty()) {
+            notifyDataSetChanged()
+        } else {
+            notifyDataSetInvalidated()
+        }
+    }
+
+    override fun getFilter(): Filter {
+        return filter
+    }
+
+    /**
+     * Filter that leaves the suggestions alone
+     */
+    private inner class PassiveFilter : Filter() {
+        override fun performFiltering(constraint: CharSequence?): FilterResults {
+            return FilterResults()
+        }
+
+        override fun publishResults(constraint: CharSequence?, results: FilterResults) {}
+    }
+}
@@ -0,0 +1,134 @@
+package com.tokenautocomplete
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Feeds queries to a [SuggestionSource] without flooding it
+ *
+ * - queries are only sent once the user has stopped typing for the debounce delay
+ * - a query that is already in flight is not sent again
+ * - at most maxConcurrentRequests queries are in flight. While at the cap, only the latest
+ * query waits for a free slot
+ * - responses are only delivered if their query is still the latest one
+ *
+ * @param source where suggestions come from
+ * @param debounceMillis how long to wait after the last query before sending it
+ * @param maxConcurrentRequests maximum number of requests in flight at once
+ * @param scheduler runs the debounce timer
+ * @param callbackExecutor thread to deliver suggestions on, usually the main thread
+ * @param listener receives the query and its suggestions
+ */
+class SuggestionController<T>(
+    private val source: SuggestionSource<T>,
+    private val debounceMillis: Long,
+    private val maxConcurrentRequests: Int,
+    private val scheduler: ScheduledExecutorService,
+    private val callbackExecutor: Executor,
+    private val listener: Listener<T>
+) {
+    private val lock = Any()
+    private var latestQuery: String? = null
+    private var pendingDispatch: ScheduledFuture<*>? = null
+    //Query waiting for a free request slot
+    private var queuedQuery: String? = null
+    private val inFlight = HashSet<String>()
+
+    interface Listener<T> {
+        /**
+         * Called on the callback executor with suggestions for the latest query
+         */
+        fun onSuggestions(query: String, suggestions: List<@JvmSuppressWildcards T>)
+
+        /**
+         * Called on the callback executor when the request for the latest query failed
+         */
+        fun onError(query: String, error: Throwable)
+    }
+
+    /**
+     * Number of requests sent to the source that have not answered yet
+     */
+    val inFlightCount: Int
+        get() = synchronized(lock) { inFlight.size }
+
+    /**
+     * Ask for suggestions for a new query. Replaces any query that has not been delivered yet.
+     *
+     * @param query the current completion text
+     */
+    fun onQuery(query: String) {
+        synchronized(lock) {
+            latestQuery = query
+            queuedQuery = null
+            pendingDispatch?.cancel(false)
+            pendingDispatch = scheduler.schedule({ dispatch(query) }, debounceMillis, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Forget the current query. Pending requests are not sent and responses are ignored.
+     */
+    fun cancel() {
+        synchronized(lock) {
+            latestQuery = null
+            queuedQuery = null
+            pendingDispatch?.cancel(false)
+            pendingDispatch = null
+        }
+    }
+
+    private fun dispatch(query: String) {
+        synchronized(lock) {
+            if (query != latestQuery) return
+            pendingDispatch = null
+            if (inFlight.contains(query)) {
+                //The response for the request already in flight will be delivered
+                return
+            }
+            if (inFlight.size >= maxConcurrentRequests) {
+                queuedQuery = query
+                return
+            }
+            inFlight.add(query)
+        }
+        send(query)
+    }
+
+    private fun send(query: String) {
+        source.requestSuggestions(query, object : SuggestionSource.Callback<T> {
+            override fun onSuggestions(suggestions: List<T>) {
+                finish(query)
+                callbackExecutor.execute {
+                    //The user may have kept typing while we switched threads
+                    if (isLatest(query)) listener.onSuggestions(query, suggestions)
+                }
+            }
+
+            override fun onError(error: Throwable) {
+                finish(query)
+                callbackExecutor.execute {
+                    if (isLatest(query)) listener.onError(query, error)
+                }
+            }
+        })
+    }
+
+    private fun isLatest(query: String): Boolean {
+        return synchronized(lock) { query == latestQuery }
+    }
+
+    private fun finish(query: String) {
+        val next: String?
+        synchronized(lock) {
+            inFlight.remove(query)
+            next = queuedQuery
+            if (next == null || inFlight.size >= maxConcurrentRequests) return
+            queuedQuery = null
+            if (!inFlight.add(next)) return
+        }
+        send(next!!)
+    }
+}
@@ -0,0 +1,24 @@
+package com.tokenautocomplete
+
+/**
+ * Asynchronous source of suggestions, such as a backend search API
+ *
+ * TokenCompleteTextView drives the source through a [SuggestionController], which debounces
+ * keystrokes, reuses requests that are already in flight and ignores responses for queries the
+ * user has typed past, so implementations only need to answer one query at a time.
+ */
+interface SuggestionSource<T> {
+    /**
+     * Look up suggestions for a query. Exactly one of the callback methods must be called,
+     * from any thread.
+     *
+     * @param query the current completion text
+     * @param callback receives the suggestions or the error
+     */
+    fun requestSuggestions(query: String, callback: Callback<T>)
+
+    interface Callback<T> {
+        fun onSuggestions(suggestions: List<@JvmSuppressWildcards T>)
+        fun onError(error: Throwable)
+    }
+}
@@ -0,0 +1,23 @@
+package com.tokenautocomplete
+
+/**
+ * Adapter that can be searched from a coroutine instead of through its [android.widget.Filter]
+ *
+ * TokenCompleteTextView uses this with [TokenCompleteTextView.setCoroutineFiltering]. A search
+ * is cancelled as soon as the user types past its constraint, so implementations should check
+ * for cancellation while they search rather than only at the end.
+ */
+interface SuspendFilterable<T> {
+    /**
+     * Find the objects matching a constraint. Runs on the dispatcher chosen for filtering.
+     *
+     * @param constraint the current completion text
+     * @return the objects to show
+     */
+    suspend fun search(constraint: String): List<@JvmSuppressWildcards T>
+
+    /**
+     * Show the results of [search], called on the main thread
+     */
+    fun showResults(results: List<@JvmSuppressWildcards T>)
+}
@@ -0,0 +1,104 @@
+package com.tokenautocomplete
+
+import android.graphics.Canvas
+import android.graphics.Paint.FontMetricsInt
+import android.graphics.drawable.Drawable
+import android.text.TextUtils
+import kotlin.math.ceil
+import kotlin.math.max
+
+/**
+ * Token drawn straight onto the text without a view: a rounded background, an optional icon and
+ * a label, drawn with the paints of a [TokenChipStyle] shared by every chip. Return
+ * `TokenImageSpan(TokenChip(label, style), obj)` from `buildSpanForObject` to use chips instead
+ * of the views from `getViewForObject`.
+ *
+ * The label is measured once, and again only when the width available to tokens changes.
+ *
+ * @param label text of the chip, ellipsized if the chip would be wider than the text field
+ * @param style colors and sizes of the chip
+ * @param icon drawn before the label, or null for no icon
+ */
+class TokenChip @JvmOverloads constructor(
+    val label: CharSequence,
+    val style: TokenChipStyle,
+    val icon: Drawable? = null
+) {
+    var isSelected = false
+
+    private var labelWidth = -1f
+    private var cachedMaxWidth = -1
+    private var displayLabel = label
+    private var width = 0
+
+    private fun prepare(maxWidth: Int) {
+        if (labelWidth >= 0 && maxWidth == cachedMaxWidth) return
+        val paint = style.textPaint
+        if (labelWidth < 0) {
+            labelWidth = paint.measureText(label, 0, label.length)
+        }
+        cachedMaxWidth = maxWidth
+        val contentStart = style.horizontalPadding + iconWidth()
+        val available = maxWidth - contentStart - style.horizontalPadding
+        //A width of 0 means the chip can be as wide as its content
+        displayLabel = if (maxWidth > 0 && labelWidth > available) {
+            TextUtils.ellipsize(label, paint, max(available, 0).toFloat(), TextUtils.TruncateAt.END)
+        } else {
+            label
+        }
+        val displayWidth = if (displayLabel === label) {
+            labelWidth
+        } else {
+            paint.measureText(displayLabel, 0, displayLabel.length)
+        }
+        width = contentStart + ceil(displayWidth).toInt() + style.horizontalPadding
+    }
+
+    private fun iconWidth(): Int {
+        return if (icon == null) 0 else style.iconSize + style.iconPadding
+    }
+
+    /**
+     * @param fontMetricsInt set to the height of the chip, aligned to the baseline of the text
+     * @param maxWidth width available to the chip, or 0 for no limit
+     * @return the width of the chip
+     */
+    fun getSize(fontMetricsInt: FontMetricsInt?, maxWidth: Int): Int {
+        prepare(maxWidth)
+        if (fontMetricsInt != null) {
+            fontMetricsInt.top = -style.baseline
+            fontMetricsInt.ascent = fontMetricsInt.top
+            fontMetricsInt.bottom = style.height - style.baseline
+            fontMetricsInt.descent = fontMetricsInt.bottom
+        }
+        return width
+    }
+
+    /**
+     * @param x start of the chip
+     * @param y baseline of the text the chip is aligned to
+     * @param maxWidth width available to the chip, or 0 for no limit
+     */
+    fun draw(canvas: Canvas, x: Float, y: Int, maxWidth: Int) {
+        prepare(maxWidth)
+        val top = (y - style.baseline).toFloat()
+        val rect = style.rect
+        rect.set(x, top, x + width, top + style.height)
+        val background = style.backgroundPaint
+        background.color = if (isSelected) style.selectedBackgroundColor else style.backgroundColor
+        canvas.drawRoundRect(rect, style.cornerRadius, style.cornerRadius, background)
+
+        var left = x + style.horizontalPadding
+        if (icon != null) {
+            val iconLeft = left.toInt()
+            val iconTop = top.toInt() + (style.height - style.iconSize) / 2
+            icon.setBounds(iconLeft, iconTop, iconLeft + style.iconSize, iconTop + style.iconSize)
+            icon.draw(canvas)
+            left += iconWidth()
+        }
+
+        val paint = style.textPaint
+        paint.color = if (isSelected) style.selectedTextColor else style.textColor
+        canvas.drawText(displayLabel, 0, displayLabel.length, left, y.toFloat(), paint)
+    }
+}
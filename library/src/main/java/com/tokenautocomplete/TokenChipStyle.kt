@@ -0,0 +1,64 @@
+package com.tokenautocomplete
+
+import android.graphics.Paint
+import android.graphics.RectF
+import android.graphics.Typeface
+import android.text.TextPaint
+import androidx.annotation.ColorInt
+import kotlin.math.max
+
+/**
+ * Colors and sizes of [TokenChip]s. Chips draw with the paints of their style, so every chip
+ * sharing a style shares a single set of paints
+ *
+ * @param textSize size of the label in pixels
+ * @param textColor color of the label
+ * @param backgroundColor color of the chip background
+ * @param selectedTextColor color of the label when the token is selected
+ * @param selectedBackgroundColor color of the chip background when the token is selected
+ * @param cornerRadius radius of the background corners in pixels
+ * @param horizontalPadding space before and after the content in pixels
+ * @param verticalPadding space above and below the content in pixels
+ * @param iconSize width and height of the icon in pixels, or 0 to use the label height
+ * @param iconPadding space between the icon and the label in pixels
+ * @param typeface typeface of the label, or null for the default
+ */
+class TokenChipStyle @JvmOverloads constructor(
+    textSize: Float,
+    @ColorInt val textColor: Int,
+    @ColorInt val backgroundColor: Int,
+    @ColorInt val selectedTextColor: Int = textColor,
+    @ColorInt val selectedBackgroundColor: Int = backgroundColor,
+    val cornerRadius: Float = 0f,
+    val horizontalPadding: Int = 0,
+    val verticalPadding: Int = 0,
+    iconSize: Int = 0,
+    val iconPadding: Int = horizontalPadding,
+    typeface: Typeface? = null
+) {
+    internal val textPaint = TextPaint(Paint.ANTI_ALIAS_FLAG)
+    internal val backgroundPaint = Paint(Paint.ANTI_ALIAS_FLAG)
+    //Only used while drawing, on the main thread
+    internal val rect = RectF()
+
+    val iconSize: Int
+    /**
+     * Height of a chip in pixels
+     */
+    val height: Int
+    /**
+     * Distance from the top of a chip to the baseline of the label in pixels
+     */
+    val baseline: Int
+
+    init {
+        textPaint.textSize = textSize
+        textPaint.typeface = typeface
+        val metrics = textPaint.fontMetricsInt
+        val textHeight = metrics.descent - metrics.ascent
+        this.iconSize = if (iconSize > 0) iconSize else textHeight
+        val contentHeight = max(textHeight, this.iconSize)
+        height = contentHeight + 2 * verticalPadding
+        baseline = verticalPadding + (contentHeight - textHeight) / 2 - metrics.ascent
+    }
+}
@@ -1,6 +1,8 @@
 package com.tokenautocomplete
 
 import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
 import android.graphics.Rect
 import android.graphics.Typeface
 import android.os.Build
@@ -37,9 +39,18 @@ import android.widget.TextView
 import android.widget.TextView.OnEditorActionListener
 import androidx.annotation.UiThread
 import androidx.appcompat.widget.AppCompatAutoCompleteTextView
+import androidx.core.view.ViewCompat
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
 import java.io.Serializable
 import java.lang.reflect.ParameterizedType
 import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
 
 /**
  * GMail style auto complete view with easy token customization
@@ -64,6 +75,9 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     private var selectedObject: T? = null
     private var listener: TokenListener<T>? = null
     private var spanWatcher: TokenSpanWatcher = TokenSpanWatcher()
+    private val tokenRegistry = TokenRegistry<TokenImageSpan, T> { it.token }
+    //Content the registry mirrors, null when it has to be rebuilt before it is used
+    private var registryContent: Spanned? = null
     private var textWatcher: TokenTextWatcher = TokenTextWatcher()
     private var countSpan: CountSpan = CountSpan()
     private var hiddenContent: SpannableStringBuilder? = null
@@ -79,6 +93,25 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     private var internalEditInProgress = false
     private var inBatchEditAPI26to29Workaround = false
     private var tokenLimit = -1
+    //Token listener and collapse calls are made once for the whole batch by addObjectsSync
+    private var batchAddInProgress = false
+    //Token spans are removed and put back by bulk removals, which notify the listener themselves
+    private var batchRemoveInProgress = false
+    private var tokenViewPool: TokenViewPool<View>? = null
+    private var tokenRenderCaching = false
+    private var tokenVirtualization = false
+    //Token spans holding a view while virtualization is enabled
+    private val liveTokenSpans = LinkedHashSet<TokenImageSpan>()
+    //Views released tokens are measured with, one for each view type
+    private val scratchTokenViews = HashMap<Int, View>()
+    //Bottom of the lowest line above and top of the highest line below the scroll window that
+    //have tokens left out of the recorded text, because they had no view
+    private var skippedTokensAbove = Int.MIN_VALUE
+    private var skippedTokensBelow = Int.MAX_VALUE
+    private var suggestionController: SuggestionController<T>? = null
+    private var filterPipeline: FilterPipeline<T>? = null
+    //Scope for filterPipeline while the view is attached
+    private var filterScope: CoroutineScope? = null
 
     /**
      * Android M/API 30 introduced a change to the SpannableStringBuilder that triggers additional
@@ -92,11 +125,39 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     @Transient
     private var lastCompletionText: String? = null
 
+    //Bumped whenever the text, its token or hint spans or the selection change, so state
+    //derived from them is only computed once per edit
+    private var editGeneration = 0
+    private var listening = false
+    private var hintGeneration = -1
+    private var cachedHintVisible = false
+    private var candidateRangeGeneration = -1
+    private var cachedCandidateRange: Range? = null
+
     private val hintVisible: Boolean
         get() {
-            return text.getSpans(0, text.length, HintSpan::class.java).isNotEmpty()
+            if (hintGeneration == editGeneration) return cachedHintVisible
+            val visible = text.getSpans(0, text.length, HintSpan::class.java).isNotEmpty()
+            if (isTrackingEdits()) {
+                cachedHintVisible = visible
+                hintGeneration = editGeneration
+            }
+            return visible
         }
 
+    private fun editChanged() {
+        editGeneration++
+    }
+
+    /**
+     * @return true if every change to the text and its spans bumps [editGeneration], so
+     * derived state can be cached
+     */
+    private fun isTrackingEdits(): Boolean {
+        val text = text ?: return false
+        return listening && text.getSpanStart(spanWatcher) >= 0
+    }
+
     /**
      * Add the TextChangedListeners
      */
@@ -105,6 +166,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         if (text != null) {
             text.setSpan(spanWatcher, 0, text.length, Spanned.SPAN_INCLUSIVE_INCLUSIVE)
             addTextChangedListener(textWatcher)
+            listening = true
         }
     }
 
@@ -119,7 +181,11 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
                 text.removeSpan(watcher)
             }
             removeTextChangedListener(textWatcher)
+            listening = false
+            editChanged()
         }
+        //Token spans can change before the listeners are added back
+        registryContent = null
     }
 
     /**
@@ -153,7 +219,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
                 }
 
                 // Token limit check
-                if (tokenLimit != -1 && objects.size == tokenLimit) {
+                if (tokenLimit != -1 && objectCount == tokenLimit) {
                     return@InputFilter ""
                 }
 
@@ -207,12 +273,126 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     }
 
     override fun performFiltering(text: CharSequence, keyCode: Int) {
+        val controller = suggestionController
+        if (controller != null) {
+            controller.onQuery(currentCompletionText())
+            return
+        }
+        val pipeline = filterPipeline
+        @Suppress("unchecked_cast")
+        val filterable = adapter as? SuspendFilterable<T>
+        if (pipeline != null && filterable != null) {
+            pipeline.onQuery(currentCompletionText(), filterable)
+            return
+        }
         val filter = filter
+        //Let the filter drop work for the previous constraint as soon as possible
+        (filter as? CancellableFilter)?.cancelFiltering()
         filter?.filter(currentCompletionText(), this)
     }
 
     fun setTokenizer(t: Tokenizer) {
         tokenizer = t
+        editChanged()
+    }
+
+    /**
+     * Get suggestions from an asynchronous source, like a backend search, instead of the
+     * adapter's Filter. Keystrokes are debounced, a query that is already in flight is not sent
+     * again and responses for queries the user has typed past are dropped. Use a
+     * [SuggestionAdapter] as the adapter to display the suggestions, or override
+     * [onSuggestionsReceived].
+     *
+     * @param source where suggestions come from, or null to go back to the adapter's Filter
+     * @param debounceMillis how long to wait after the last keystroke before sending a query
+     * @param maxConcurrentRequests maximum number of requests the source handles at once
+     */
+    @JvmOverloads
+    fun setSuggestionSource(
+        source: SuggestionSource<T>?,
+        debounceMillis: Long = DEFAULT_SUGGESTION_DEBOUNCE_MILLIS,
+        maxConcurrentRequests: Int = DEFAULT_MAX_CONCURRENT_SUGGESTION_REQUESTS
+    ) {
+        suggestionController?.cancel()
+        suggestionController = source?.let {
+            SuggestionController(
+                it, debounceMillis, maxConcurrentRequests, suggestionScheduler,
+                Executor { runnable -> post(runnable) },
+                object : SuggestionController.Listener<T> {
+                    override fun onSuggestions(query: String, suggestions: List<T>) {
+                        onSuggestionsReceived(query, suggestions)
+                    }
+
+                    override fun onError(query: String, error: Throwable) {
+                        Log.w(TAG, "Unable to load suggestions for '$query'", error)
+                    }
+                })
+        }
+    }
+
+    /**
+     * Called on the main thread with suggestions from the [SuggestionSource] for the current
+     * completion text. Puts the suggestions in the adapter if it is a [SuggestionAdapter] and
+     * updates the drop down.
+     *
+     * @param query the completion text the suggestions are for
+     * @param suggestions the suggestions
+     */
+    protected open fun onSuggestionsReceived(query: String, suggestions: List<T>) {
+        @Suppress("unchecked_cast")
+        (adapter as? SuggestionAdapter<T>)?.setSuggestions(suggestions)
+        onFilterComplete(adapter?.count ?: 0)
+    }
+
+    /**
+     * Search the adapter with coroutines instead of its Filter, if it implements
+     * [SuspendFilterable] like [FilteredArrayAdapter] does. Keystrokes are conflated, the search
+     * for a constraint is cancelled as soon as the user types past it and results are shown on
+     * the main thread. Searches stop while the view is detached from its window.
+     *
+     * @param enabled true to filter with coroutines, false to go back to the adapter's Filter
+     * @param dispatcher where searches run
+     */
+    @JvmOverloads
+    fun setCoroutineFiltering(enabled: Boolean, dispatcher: CoroutineDispatcher = Dispatchers.Default) {
+        filterPipeline?.stop()
+        filterPipeline = if (enabled) {
+            FilterPipeline(dispatcher, object : FilterPipeline.Listener<T> {
+                override fun onResults(query: String, results: List<T>) {
+                    @Suppress("unchecked_cast")
+                    (adapter as? SuspendFilterable<T>)?.showResults(results)
+                    onFilterComplete(adapter?.count ?: 0)
+                }
+
+                override fun onError(query: String, error: Throwable) {
+                    Log.w(TAG, "Unable to filter for '$query'", error)
+                }
+            })
+        } else {
+            null
+        }
+        if (ViewCompat.isAttachedToWindow(this)) startFilterPipeline()
+    }
+
+    private fun startFilterPipeline() {
+        val pipeline = filterPipeline ?: return
+        val scope = filterScope ?: CoroutineScope(SupervisorJob() + Dispatchers.Main.immediate).also {
+            filterScope = it
+        }
+        pipeline.start(scope)
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        startFilterPipeline()
+    }
+
+    override fun onDetachedFromWindow() {
+        super.onDetachedFromWindow()
+        suggestionController?.cancel()
+        filterPipeline?.stop()
+        filterScope?.cancel()
+        filterScope = null
     }
 
     /**
@@ -305,18 +485,42 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
      * @return List of tokens
      */
     val objects: List<T>
-        get() {
-            val objects = ArrayList<T>()
-            var text = text
-            if (hiddenContent != null) {
-                text = hiddenContent
-            }
-            for (span in text.getSpans(0, text.length, TokenImageSpan::class.java)) {
-                @Suppress("unchecked_cast")
-                objects.add(span.token as T)
-            }
-            return objects
+        get() = registry().tokens()
+
+    /**
+     * Number of tokens, without building the [objects] list
+     */
+    val objectCount: Int
+        get() = registry().size
+
+    /**
+     * Check if a token is displayed, using [Object.equals] and [Object.hashCode]
+     *
+     * @param obj the object to look for
+     * @return true if a token for obj is present
+     */
+    fun containsObject(obj: T): Boolean {
+        return obj in registry()
+    }
+
+    /**
+     * @return the token registry, rebuilt from the content first if span changes were not
+     * tracked since it was last used
+     */
+    private fun registry(): TokenRegistry<TokenImageSpan, T> {
+        val content: Spanned = hiddenContent ?: text
+        //The span watcher is detached while the view collapses or saves its state
+        if (content !== registryContent || content.getSpanStart(spanWatcher) < 0) {
+            //getSpans returns spans in the order they were set, which is not the text order once
+            //a bulk removal has put tokens back
+            @Suppress("unchecked_cast")
+            val spans = content.getSpans(0, content.length, TokenImageSpan::class.java) as Array<TokenImageSpan>
+            spans.sortBy { content.getSpanStart(it) }
+            tokenRegistry.reset(spans)
+            registryContent = if (content.getSpanStart(spanWatcher) < 0) null else content
         }
+        return tokenRegistry
+    }
 
     /**
      * Get the content entered in the text field, including hidden text when ellipsized
@@ -375,6 +579,113 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
      */
     protected abstract fun getViewForObject(obj: T): View?
 
+    /**
+     * Reuse the views of removed tokens for new tokens instead of creating them with
+     * [getViewForObject]. Override [onBindTokenView] to fill a recycled view with a new object,
+     * and [getTokenViewType] if tokens use different kinds of views.
+     *
+     * @param maxViewsPerType number of views to keep for each view type, or -1 to disable
+     * recycling. Defaults to -1.
+     */
+    @Suppress("unused")
+    fun setTokenViewRecycling(maxViewsPerType: Int) {
+        tokenViewPool = if (maxViewsPerType == -1) null else TokenViewPool(maxViewsPerType)
+    }
+
+    /**
+     * Draw tokens from a recording of their view, instead of drawing every token view each time
+     * the text is drawn, like when the cursor blinks. Uses a RenderNode on API 29 and up, and a
+     * Bitmap otherwise. Recordings are redone when a token view is laid out again or its
+     * selected state changes. From API 21 they are also redone the next time the field draws,
+     * like when the cursor blinks, after a token view was invalidated. Call [redrawTokens] to
+     * show a change to a token view right away, or after changing it on earlier versions.
+     *
+     * @param enabled true to cache token rendering. Defaults to false.
+     */
+    @Suppress("unused")
+    fun setTokenRenderCaching(enabled: Boolean) {
+        tokenRenderCaching = enabled
+        for (text in listOfNotNull<Spanned>(hiddenContent, text)) {
+            for (span in text.getSpans(0, text.length, TokenImageSpan::class.java)) {
+                span.renderCaching = enabled
+            }
+        }
+        repaintTokens()
+    }
+
+    /**
+     * Keep views only for the tokens on the lines inside the scroll window of the field. Other
+     * tokens keep the size of their view and give the view up once the field is drawn or they
+     * are scrolled out, to the recycling pool if [setTokenViewRecycling] is enabled. A view is
+     * created again with [getViewForObject], or bound with [onBindTokenView], when its line
+     * scrolls into view.
+     * When the width of the field changes, released tokens are measured again with a single view
+     * for each view type, bound with [onBindTokenView], so override it to avoid creating a view
+     * for every token.
+     *
+     * Works with [setTokenRenderCaching]: the rendering of a released view is not discarded,
+     * because lines drawn earlier may be drawn again from their recording without drawing the
+     * token. It is recorded again once the token has a new view.
+     *
+     * Tokens without a view on lines outside the scroll window are left out when the text is
+     * drawn, so redrawing the text doesn't create their views. The text is drawn again once
+     * one of them scrolls into view.
+     *
+     * @param enabled true to release the views of tokens that are not visible. Defaults to false.
+     */
+    @Suppress("unused")
+    fun setTokenVirtualization(enabled: Boolean) {
+        tokenVirtualization = enabled
+        liveTokenSpans.clear()
+        scratchTokenViews.clear()
+        if (enabled) {
+            for (text in listOfNotNull<Spanned>(hiddenContent, text)) {
+                @Suppress("unchecked_cast")
+                val spans: Array<TokenImageSpan> =
+                    text.getSpans(0, text.length, TokenImageSpan::class.java) as Array<TokenImageSpan>
+                spans.filterTo(liveTokenSpans) { it.hasView }
+            }
+        }
+        //Tokens left out of the recorded text have to be drawn when disabling
+        skippedTokensAbove = Int.MIN_VALUE
+        skippedTokensBelow = Int.MAX_VALUE
+        repaintTokens()
+    }
+
+    /**
+     * Override if tokens use different kinds of views. Only views of the same type are reused
+     * for each other.
+     *
+     * @param obj the object a token view is needed for
+     * @return the view type for obj. Defaults to 0
+     */
+    protected open fun getTokenViewType(obj: T): Int {
+        return 0
+    }
+
+    /**
+     * Override to display obj in a view recycled from a removed token, when recycling is enabled
+     * with [setTokenViewRecycling]
+     *
+     * @param view a view returned by [getViewForObject] for an object of the same view type
+     * @param obj the object to display
+     * @return true if the view now displays obj, false to create a new view with
+     * [getViewForObject]. Defaults to false
+     */
+    protected open fun onBindTokenView(view: View, obj: T): Boolean {
+        return false
+    }
+
+    /**
+     * Called when the view of a removed token goes back to the recycling pool, or when a view
+     * was bound to obj only to measure it. Override to release anything the view holds for obj,
+     * like image requests.
+     *
+     * @param view the view of the removed token
+     * @param obj the object the view displayed
+     */
+    protected open fun onUnbindTokenView(view: View, obj: T) {}
+
     /**
      * Provides a default completion when the user hits , and there is no item in the completion
      * list
@@ -397,7 +708,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     @Suppress("MemberVisibilityCanBePrivate")
     open val textForAccessibility: CharSequence
         get() {
-            if (objects.isEmpty()) {
+            if (objectCount == 0) {
                 return text
             }
             var description = SpannableStringBuilder()
@@ -472,42 +783,76 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             event.itemCount = text.length
         }
     }
-    //Don't try to search the hint for possible tokenizable strings
-
     //We want to find the largest string that contains the selection end that is not already tokenized
     private val currentCandidateTokenRange: Range
         get() {
-            val editable = text
-            val cursorEndPosition = selectionEnd
-            var candidateStringStart = prefix?.length ?: 0
-            var candidateStringEnd = editable.length
-            if (hintVisible) {
-                //Don't try to search the hint for possible tokenizable strings
-                candidateStringEnd = candidateStringStart
+            val cached = cachedCandidateRange
+            if (cached != null && candidateRangeGeneration == editGeneration) return cached
+            val range = findCandidateTokenRange()
+            if (isTrackingEdits()) {
+                cachedCandidateRange = range
+                candidateRangeGeneration = editGeneration
             }
+            return range
+        }
 
-            //We want to find the largest string that contains the selection end that is not already tokenized
-            val spans = editable.getSpans(prefix?.length ?: 0, editable.length, TokenImageSpan::class.java)
-            for (span in spans) {
+    /**
+     * Find the untokenized text around the cursor. Only looks at the tokens next to the cursor,
+     * so the cost does not grow with the number of tokens.
+     */
+    private fun findCandidateTokenRange(): Range {
+        val editable = text
+        val cursorEndPosition = selectionEnd
+        val prefixLength = prefix?.length ?: 0
+        var candidateStringStart = prefixLength
+        var candidateStringEnd = editable.length
+        if (hintVisible) {
+            //Don't try to search the hint for possible tokenizable strings
+            candidateStringEnd = candidateStringStart
+        }
+
+        //Start after the closest token ending before the cursor, searching back in growing windows
+        var window = CANDIDATE_SEARCH_WINDOW
+        var windowStart = cursorEndPosition
+        while (windowStart > prefixLength) {
+            windowStart = (cursorEndPosition - window).coerceAtLeast(prefixLength)
+            var closestEnd = -1
+            for (span in editable.getSpans(windowStart, cursorEndPosition, TokenImageSpan::class.java)) {
                 val spanEnd = editable.getSpanEnd(span)
-                if (spanEnd in (candidateStringStart + 1)..cursorEndPosition) {
-                    candidateStringStart = spanEnd
-                }
-                val spanStart = editable.getSpanStart(span)
-                if (candidateStringEnd > spanStart && cursorEndPosition <= spanEnd) {
-                    candidateStringEnd = spanStart
+                if (spanEnd in (prefixLength + 1)..cursorEndPosition && spanEnd > closestEnd) {
+                    closestEnd = spanEnd
                 }
             }
-            val tokenRanges =
-                tokenizer!!.findTokenRanges(editable, candidateStringStart, candidateStringEnd)
-            for (range in tokenRanges) {
-                @Suppress("unused")
-                if (range.start <= cursorEndPosition && cursorEndPosition <= range.end) {
-                    return range
-                }
+            if (closestEnd != -1) {
+                candidateStringStart = closestEnd
+                break
+            }
+            window *= 2
+        }
+
+        //End before the token holding the cursor, or the first token after it
+        for (span in editable.getSpans(cursorEndPosition, cursorEndPosition, TokenImageSpan::class.java)) {
+            val spanStart = editable.getSpanStart(span)
+            if (candidateStringEnd > spanStart && cursorEndPosition <= editable.getSpanEnd(span)) {
+                candidateStringEnd = spanStart
+            }
+        }
+        if (cursorEndPosition < candidateStringEnd) {
+            candidateStringEnd = editable.nextSpanTransition(
+                cursorEndPosition, candidateStringEnd, TokenImageSpan::class.java
+            )
+        }
+
+        val tokenRanges =
+            tokenizer!!.findTokenRanges(editable, candidateStringStart, candidateStringEnd)
+        for (range in tokenRanges) {
+            @Suppress("unused")
+            if (range.start <= cursorEndPosition && cursorEndPosition <= range.end) {
+                return range
             }
-            return Range(cursorEndPosition, cursorEndPosition)
         }
+        return Range(cursorEndPosition, cursorEndPosition)
+    }
 
     /**
      * Override if you need custom logic to provide a sting representation of a token
@@ -536,7 +881,25 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     override val maxViewSpanWidth: Int
         get() = maxTextWidth().toInt()
 
+    /**
+     * Redraw every token. Call after changing token views, so cached renderings are recorded
+     * again when [setTokenRenderCaching] is enabled
+     */
     fun redrawTokens() {
+        val text = text ?: return
+        if (tokenRenderCaching) {
+            for (span in text.getSpans(0, text.length, TokenImageSpan::class.java)) {
+                span.invalidateCache()
+            }
+        }
+        repaintTokens()
+    }
+
+    /**
+     * Redraw the tokens, replaying cached renderings. Selection changes don't need to drop the
+     * cache, the drawable state of the view is part of it
+     */
+    private fun repaintTokens() {
         // There's no straight-forward way to convince the widget to redraw the text and spans. We trigger a redraw by
         // making an invisible change (either adding or removing a dummy span).
         val text = text ?: return
@@ -633,7 +996,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             val spans: Array<TokenImageSpan> =
                 text.getSpans(0, text.length, TokenImageSpan::class.java) as Array<TokenImageSpan>
             for (span in spans) {
-                if (span.view.isSelected) {
+                if (span.isTokenSelected) {
                     removeSpan(text, span)
                     return true
                 }
@@ -679,6 +1042,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     }
 
     override fun onSelectionChanged(selStart: Int, selEnd: Int) {
+        editChanged()
         var selectionStart = selStart
         if (hintVisible) {
             //Don't let users select the hint
@@ -736,7 +1100,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
                 text.removeSpan(spanWatcher)
                 val temp = if (preventFreeFormText) countSpan else null
                 val ellipsized = SpanUtils.ellipsizeWithSpans(
-                    prefix, temp, objects.size,
+                    prefix, temp, objectCount,
                     lastLayout!!.paint, text, maxTextWidth()
                 )
                 if (ellipsized != null) {
@@ -806,12 +1170,132 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         return ""
     }
 
+    /**
+     * Build the span displaying a token. Uses the view from [getViewForObject] by default.
+     * Override to return `TokenImageSpan(TokenChip(label, style), obj)` to draw tokens as
+     * [TokenChip]s without a view.
+     */
     @Suppress("MemberVisibilityCanBePrivate")
     protected open fun buildSpanForObject(obj: T?): TokenImageSpan? {
         if (obj == null) {
             return null
         }
-        return getViewForObject(obj)?.let { TokenImageSpan(it, obj) }
+        val view = recycledViewFor(obj) ?: getViewForObject(obj)
+        return view?.let { TokenImageSpan(it, obj) }
+    }
+
+    private fun recycledViewFor(obj: T): View? {
+        val pool = tokenViewPool ?: return null
+        val view = pool.acquire(getTokenViewType(obj)) ?: return null
+        return if (onBindTokenView(view, obj)) view else null
+    }
+
+    /**
+     * Put the view of a token that is no longer displayed back in the recycling pool
+     */
+    private fun recycleTokenView(span: TokenImageSpan) {
+        if (tokenViewPool == null) {
+            liveTokenSpans.remove(span)
+            return
+        }
+        //The span gives the view up, so a span that is put back, like on undo, gets a new view
+        //instead of sharing it with the token the pool hands it to
+        span.releaseTokenView()
+    }
+
+    private fun poolTokenView(view: View, obj: T) {
+        val pool = tokenViewPool ?: return
+        view.isSelected = false
+        onUnbindTokenView(view, obj)
+        pool.release(getTokenViewType(obj), view)
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        if (tokenRenderCaching) redrawInvalidatedTokens()
+        if (tokenVirtualization) releaseHiddenTokenViews()
+    }
+
+    /**
+     * Draw the text again if token views were invalidated since their rendering was recorded,
+     * like when an image they show finished loading. Token views don't pass invalidation on to
+     * the field, and its recorded lines are replayed without drawing the tokens again
+     */
+    private fun redrawInvalidatedTokens() {
+        val text = text ?: return
+        var invalidated = false
+        for (span in text.getSpans(0, text.length, TokenImageSpan::class.java)) {
+            //Each recording is dropped once, tokens on lines that are not drawn don't loop
+            if (span.invalidateCacheIfDirty()) invalidated = true
+        }
+        if (invalidated) repaintTokens()
+    }
+
+    override fun onScrollChanged(horiz: Int, vert: Int, oldHoriz: Int, oldVert: Int) {
+        super.onScrollChanged(horiz, vert, oldHoriz, oldVert)
+        drawSkippedTokens()
+    }
+
+    override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
+        super.onSizeChanged(w, h, oldw, oldh)
+        drawSkippedTokens()
+    }
+
+    /**
+     * Bottom of the scroll window, in layout coordinates. The top is [getScrollY]
+     */
+    private val visibleLayoutBottom: Int
+        get() = scrollY + height - extendedPaddingTop - extendedPaddingBottom
+
+    /**
+     * Remember that a token on the line from top to bottom was left out of the recorded text
+     */
+    private fun skipHiddenToken(top: Int, bottom: Int) {
+        if (bottom <= scrollY) {
+            skippedTokensAbove = maxOf(skippedTokensAbove, bottom)
+        } else {
+            skippedTokensBelow = minOf(skippedTokensBelow, top)
+        }
+    }
+
+    /**
+     * Record the text again if tokens it left out are now inside the scroll window. Lines
+     * recorded by the text field are replayed on scroll without drawing their tokens again
+     */
+    private fun drawSkippedTokens() {
+        if (scrollY < skippedTokensAbove || visibleLayoutBottom > skippedTokensBelow) {
+            skippedTokensAbove = Int.MIN_VALUE
+            skippedTokensBelow = Int.MAX_VALUE
+            repaintTokens()
+        }
+    }
+
+    /**
+     * Release the views of tokens outside the lines drawn for the current scroll position
+     */
+    private fun releaseHiddenTokenViews() {
+        if (liveTokenSpans.isEmpty()) return
+        val text = text ?: return
+        val layout = layout ?: return
+        val firstVisible = layout.getLineStart(layout.getLineForVertical(scrollY))
+        val lastVisible = layout.getLineEnd(layout.getLineForVertical(visibleLayoutBottom))
+        liveTokenSpans.filter {
+            val start = text.getSpanStart(it)
+            //Spans that are not in the text, like collapsed ones, are released too
+            start == -1 || start >= lastVisible || text.getSpanEnd(it) <= firstVisible
+        }.forEach { it.releaseTokenView() }
+    }
+
+    /**
+     * A view to measure a token with, without keeping it for the token
+     */
+    private fun scratchViewFor(obj: T): View? {
+        val viewType = getTokenViewType(obj)
+        val scratch = scratchTokenViews[viewType]
+        if (scratch != null && onBindTokenView(scratch, obj)) return scratch
+        val view = getViewForObject(obj) ?: return null
+        scratchTokenViews[viewType] = view
+        return view
     }
 
     override fun replaceText(ignore: CharSequence) {
@@ -864,6 +1348,48 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         }
     }
 
+    /**
+     * Append token objects to the object list with a single text change. This avoids the
+     * layout, collapse and listener work [addObjectSync] does for every object. A
+     * [BatchTokenListener] is notified once with all the added tokens, other listeners get
+     * onTokenAdded for each token after they have all been added. May only be called from the
+     * main thread.
+     *
+     * [shouldIgnoreToken] is called for every object before any of them are added.
+     *
+     * @param objects the objects to add to the displayed tokens
+     */
+    @UiThread
+    fun addObjectsSync(objects: Collection<T>) {
+        val spans = ArrayList<TokenImageSpan>(objects.size)
+        var count = objectCount
+        for (obj in objects) {
+            if (shouldIgnoreToken(obj)) {
+                listener?.onTokenIgnored(obj)
+                continue
+            }
+            if (tokenLimit != -1 && count == tokenLimit) break
+            buildSpanForObject(obj)?.also {
+                spans.add(it)
+                count++
+            }
+        }
+        if (spans.isEmpty()) return
+        insertSpans(spans)
+        if (text != null && isFocused) setSelection(text.length)
+    }
+
+    /**
+     * Append token objects to the object list, see [addObjectsSync]. Objects will be added on
+     * the main thread.
+     *
+     * @param objects the objects to add to the displayed tokens
+     */
+    fun addObjectsAsync(objects: Collection<T>) {
+        val copy = ArrayList(objects)
+        post { addObjectsSync(copy) }
+    }
+
     /**
      * Append a token object to the object list. May only be called from the main thread.
      *
@@ -877,7 +1403,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             }
             return
         }
-        if (tokenLimit != -1 && objects.size == tokenLimit) return
+        if (tokenLimit != -1 && objectCount == tokenLimit) return
         buildSpanForObject(obj)?.also { insertSpan(it) }
         if (text != null && isFocused) setSelection(text.length)
     }
@@ -938,11 +1464,144 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
      * Remove all objects from the token list. Objects will be removed on the main thread.
      */
     fun clearAsync() {
-        post {
-            for (obj in objects) {
-                removeObjectSync(obj)
+        post { clearSync() }
+    }
+
+    /**
+     * Remove all objects from the token list. May only be called from the main thread.
+     */
+    @UiThread
+    fun clearSync() {
+        removeTokensWhere { true }
+    }
+
+    /**
+     * Remove every token equal to one of objects. Uses [Object.equals] and [Object.hashCode] to
+     * find objects. May only be called from the main thread.
+     *
+     * @param objects objects to remove, may include objects that are not in the view
+     */
+    @UiThread
+    fun removeObjectsSync(objects: Collection<T>) {
+        val removed = objects as? Set<T> ?: HashSet(objects)
+        removeTokensWhere { it in removed }
+    }
+
+    /**
+     * Remove every token matching predicate. May only be called from the main thread.
+     *
+     * @param predicate returns true for the tokens to remove
+     * @return true if any token was removed
+     */
+    @UiThread
+    fun removeIf(predicate: (T) -> Boolean): Boolean {
+        return removeTokensWhere(predicate)
+    }
+
+    /**
+     * Delete the spans of matching tokens with a single edit of each editable, then update the
+     * view and notify the listener once. Deleting one token at a time makes the layout reflow
+     * the whole field for each token.
+     *
+     * @return true if any token was removed
+     */
+    private fun removeTokensWhere(predicate: (T) -> Boolean): Boolean {
+        //Spans are the same objects in the hidden and the visible content, so each is kept once
+        val removed = LinkedHashSet<TokenImageSpan>()
+        //The predicate is called once per span, even when it is in both contents
+        val matches = HashMap<TokenImageSpan, Boolean>()
+        val matching = { span: TokenImageSpan -> matches.getOrPut(span) { predicate(span.token) } }
+        //Rebuilt once afterwards, instead of searching it for every removed span
+        registryContent = null
+        internalEditInProgress = true
+        batchRemoveInProgress = true
+        beginBatchEdit()
+        try {
+            //If there is hidden content, it's important that we update it first
+            for (editable in listOfNotNull(hiddenContent, text)) {
+                deleteTokenSpans(editable, matching, removed)
             }
+        } finally {
+            endBatchEdit()
+            internalEditInProgress = false
+            batchRemoveInProgress = false
+        }
+        if (removed.isEmpty()) return false
+
+        removed.forEach { recycleTokenView(it) }
+        updateHint()
+        clearSelections()
+        updateCountSpan()
+        val tokens = removed.map { it.token }
+        val listener = listener
+        if (listener is BatchTokenListener<T>) {
+            listener.onTokensRemoved(tokens)
+        } else if (listener != null) {
+            tokens.forEach { listener.onTokenRemoved(it) }
         }
+        return true
+    }
+
+    /**
+     * Replace the part of editable from the first to the last matching token with the same
+     * content without the matching tokens. The other token spans in that part are put back at
+     * their new position, after the spans outside of it in span order.
+     *
+     * @param matching returns true for the spans to remove
+     * @param removed gets the removed spans, in text order
+     */
+    private fun deleteTokenSpans(
+        editable: Editable, matching: (TokenImageSpan) -> Boolean,
+        removed: MutableCollection<TokenImageSpan>
+    ) {
+        @Suppress("unchecked_cast")
+        val spans = (editable.getSpans(0, editable.length, TokenImageSpan::class.java) as Array<TokenImageSpan>)
+            .sortedBy { editable.getSpanStart(it) }
+        //Merged start and end offsets of the text to delete
+        val ranges = ArrayList<Int>()
+        for (span in spans) {
+            if (!matching(span)) continue
+            val start = editable.getSpanStart(span)
+            //We usually add whitespace after a token, so let's try to remove it as well
+            var end = editable.getSpanEnd(span)
+            if (end < editable.length && editable[end] == ' ') {
+                end += 1
+            }
+            if (ranges.isNotEmpty() && start <= ranges[ranges.size - 1]) {
+                ranges[ranges.size - 1] = maxOf(end, ranges[ranges.size - 1])
+            } else {
+                ranges.add(start)
+                ranges.add(end)
+            }
+            removed.add(span)
+        }
+        if (ranges.isEmpty()) return
+
+        val replaceStart = ranges[0]
+        val replaceEnd = ranges[ranges.size - 1]
+        //subSequence leaves out token spans, they are no-copy spans
+        val content = SpannableStringBuilder()
+        var position = replaceStart
+        var spanIndex = spans.indexOfFirst { editable.getSpanEnd(it) > replaceStart }
+        for (index in 0 until ranges.size step 2) {
+            val keepEnd = ranges[index]
+            val offset = content.length - position
+            content.append(editable.subSequence(position, keepEnd))
+            //The span watcher is copied along, it must not see the spans put back
+            content.removeSpan(spanWatcher)
+            while (spanIndex in spans.indices && editable.getSpanStart(spans[spanIndex]) < keepEnd) {
+                val span = spans[spanIndex++]
+                val start = editable.getSpanStart(span)
+                if (start >= position && !matching(span)) {
+                    content.setSpan(
+                        span, start + offset, editable.getSpanEnd(span) + offset,
+                        editable.getSpanFlags(span)
+                    )
+                }
+            }
+            position = ranges[index + 1]
+        }
+        editable.replace(replaceStart, replaceEnd, content)
     }
 
     /**
@@ -955,7 +1614,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         }
         val text = text
         val visibleCount = getText().getSpans(0, getText().length, TokenImageSpan::class.java).size
-        countSpan.setCount(objects.size - visibleCount)
+        countSpan.setCount(objectCount - visibleCount)
         val spannedCountText = SpannableStringBuilder(countSpan.countText)
         spannedCountText.setSpan(
             countSpan,
@@ -1007,19 +1666,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         // If we haven't hidden any objects yet, we can try adding it
         if (hiddenContent == null) {
             internalEditInProgress = true
-            var offset = editable.length
-            //There might be a hint visible...
-            if (hintVisible) {
-                //...so we need to put the object in in front of the hint
-                offset = prefix?.length ?: 0
-            } else {
-                val currentRange = currentCandidateTokenRange
-                if (currentRange.length() > 0) {
-                    // The user has entered some text that has not yet been tokenized.
-                    // Find the beginning of this text and insert the new token there.
-                    offset = currentRange.start
-                }
-            }
+            val offset = insertionOffset(editable)
             editable.insert(offset, ssb)
             editable.insert(offset + ssb.length, " ")
             editable.setSpan(
@@ -1048,6 +1695,67 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         }
     }
 
+    /**
+     * Insert spans for several objects with a single change to the text, then collapse and
+     * notify the listener once
+     */
+    private fun insertSpans(tokenSpans: List<TokenImageSpan>) {
+        val ssb = SpannableStringBuilder()
+        for (tokenSpan in tokenSpans) {
+            val start = ssb.length
+            ssb.append(tokenizer!!.wrapTokenValue(tokenToString(tokenSpan.token)))
+            ssb.setSpan(tokenSpan, start, ssb.length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+            ssb.append(" ")
+        }
+        val hidden = hiddenContent
+        batchAddInProgress = true
+        try {
+            if (hidden == null) {
+                val editable = text ?: return
+                internalEditInProgress = true
+                val offset = insertionOffset(editable)
+                editable.replace(offset, offset, ssb)
+                internalEditInProgress = false
+            } else {
+                hidden.append(ssb)
+            }
+        } finally {
+            batchAddInProgress = false
+        }
+        //Copied spans are reported to span watchers differently across versions, so rebuild
+        registryContent = null
+
+        val listener = listener
+        if (listener is BatchTokenListener<T>) {
+            listener.onTokensAdded(tokenSpans.map { it.token })
+        } else if (listener != null) {
+            tokenSpans.forEach { listener.onTokenAdded(it.token) }
+        }
+        if (hidden != null) {
+            updateCountSpan()
+        } else if (!isFocused && allowCollapse) {
+            performCollapse(false)
+        }
+    }
+
+    /**
+     * @return where to insert new tokens in editable, before any text the user is typing
+     */
+    private fun insertionOffset(editable: Editable): Int {
+        //There might be a hint visible...
+        if (hintVisible) {
+            //...so we need to put the object in in front of the hint
+            return prefix?.length ?: 0
+        }
+        val currentRange = currentCandidateTokenRange
+        if (currentRange.length() > 0) {
+            // The user has entered some text that has not yet been tokenized.
+            // Find the beginning of this text and insert the new token there.
+            return currentRange.start
+        }
+        return editable.length
+    }
+
     private fun updateHint() {
         val text = text
         val hintText = hint
@@ -1108,29 +1816,115 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             text.getSpans(0, text.length, TokenImageSpan::class.java) as Array<TokenImageSpan>
         var shouldRedrawTokens = false
         for (token in tokens) {
-            if (token.view.isSelected) {
-                token.view.isSelected = false
+            if (token.isTokenSelected) {
+                token.isTokenSelected = false
                 shouldRedrawTokens = true
             }
         }
         if (shouldRedrawTokens) {
-            redrawTokens()
+            repaintTokens()
         }
     }
 
-    inner class TokenImageSpan(d: View, val token: T) : ViewSpan(d, this@TokenCompleteTextView),
-        NoCopySpan {
+    inner class TokenImageSpan : ViewSpan, NoCopySpan {
+        val token: T
+
+        /**
+         * The chip drawn for the token, or null if the token is drawn by a view
+         */
+        val chip: TokenChip?
+
+        //Selected state of the token while its view is released
+        private var releasedSelected = false
+
+        constructor(d: View, token: T) : super(d, this@TokenCompleteTextView) {
+            this.token = token
+            chip = null
+            renderCaching = tokenRenderCaching
+            if (tokenVirtualization) liveTokenSpans.add(this)
+        }
+
+        /**
+         * Span that draws the token as a chip instead of a view
+         */
+        constructor(chip: TokenChip, token: T) : super(this@TokenCompleteTextView) {
+            this.token = token
+            this.chip = chip
+        }
+
+        /**
+         * Selected state of the token, kept by the chip or the view that draws it
+         */
+        var isTokenSelected: Boolean
+            get() = chip?.isSelected ?: if (hasView) view.isSelected else releasedSelected
+            set(value) {
+                when {
+                    chip != null -> chip.isSelected = value
+                    hasView -> view.isSelected = value
+                    else -> releasedSelected = value
+                }
+            }
+
+        override fun createView(): View? {
+            if (chip != null) return null
+            val view = recycledViewFor(token) ?: getViewForObject(token) ?: return null
+            view.isSelected = releasedSelected
+            if (tokenVirtualization) liveTokenSpans.add(this)
+            return view
+        }
+
+        override fun measureView(): View? {
+            return if (chip == null) scratchViewFor(token) else null
+        }
+
+        override fun onMeasured(view: View) {
+            onUnbindTokenView(view, token)
+        }
+
+        internal fun releaseTokenView() {
+            liveTokenSpans.remove(this)
+            val view = releaseView() ?: return
+            releasedSelected = view.isSelected
+            poolTokenView(view, token)
+        }
+
+        override fun draw(
+            canvas: Canvas, text: CharSequence, start: Int, end: Int, x: Float, top: Int, y: Int,
+            bottom: Int, paint: Paint
+        ) {
+            if (chip != null) {
+                chip.draw(canvas, x, y, maxViewSpanWidth)
+            } else if (tokenVirtualization && !hasView && (bottom <= scrollY || top >= visibleLayoutBottom)) {
+                //Hardware rendering records whole paragraphs, don't create a view that is only
+                //released again after this frame
+                skipHiddenToken(top, bottom)
+            } else {
+                if (tokenVirtualization) liveTokenSpans.add(this)
+                super.draw(canvas, text, start, end, x, top, y, bottom, paint)
+            }
+        }
+
+        override fun getSize(
+            paint: Paint, charSequence: CharSequence, start: Int, end: Int,
+            fontMetricsInt: Paint.FontMetricsInt?
+        ): Int {
+            if (chip != null) return chip.getSize(fontMetricsInt, maxViewSpanWidth)
+            //A new token keeps the view it was built with until the first draw, which releases
+            //it if the token is outside the scroll window
+            return super.getSize(paint, charSequence, start, end, fontMetricsInt)
+        }
+
         fun onClick() {
             val text = text ?: return
             when (tokenClickStyle) {
                 TokenClickStyle.Select, TokenClickStyle.SelectDeselect -> {
-                    if (!view.isSelected) {
+                    if (!isTokenSelected) {
                         clearSelections()
-                        view.isSelected = true
-                        redrawTokens()
+                        isTokenSelected = true
+                        repaintTokens()
                     } else if (tokenClickStyle == TokenClickStyle.SelectDeselect || !isTokenRemovable(token)) {
-                        view.isSelected = false
-                        redrawTokens()
+                        isTokenSelected = false
+                        repaintTokens()
                     } else if (isTokenRemovable(token)) {
                         removeSpan(text, this)
                     }
@@ -1153,9 +1947,26 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         fun onTokenIgnored(token: T)
     }
 
+    /**
+     * Token listener that is told about tokens added together by [addObjectsSync], or removed
+     * together by [clearSync], [removeObjectsSync] or [removeIf], with a single call instead of
+     * a call for each token
+     */
+    interface BatchTokenListener<T> : TokenListener<T> {
+        fun onTokensAdded(tokens: List<@JvmSuppressWildcards T>)
+        fun onTokensRemoved(tokens: List<@JvmSuppressWildcards T>)
+    }
+
     private inner class TokenSpanWatcher : SpanWatcher {
         override fun onSpanAdded(text: Spannable, what: Any, start: Int, end: Int) {
-            if (what is TokenCompleteTextView<*>.TokenImageSpan && !savingState) {
+            if (what is TokenCompleteTextView<*>.TokenImageSpan || what is HintSpan) editChanged()
+            if (what is TokenCompleteTextView<*>.TokenImageSpan && text === registryContent) {
+                @Suppress("unchecked_cast")
+                tokenRegistry.add(what as TokenCompleteTextView<T>.TokenImageSpan)
+            }
+            if (what is TokenCompleteTextView<*>.TokenImageSpan && !savingState && !batchAddInProgress &&
+                !batchRemoveInProgress
+            ) {
 
                 // If we're not focused: collapse the view if necessary
                 if (!isFocused && allowCollapse) performCollapse(false)
@@ -1165,9 +1976,16 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         }
 
         override fun onSpanRemoved(text: Spannable, what: Any, start: Int, end: Int) {
-            if (what is TokenCompleteTextView<*>.TokenImageSpan && !savingState) {
+            if (what is TokenCompleteTextView<*>.TokenImageSpan || what is HintSpan) editChanged()
+            if (what is TokenCompleteTextView<*>.TokenImageSpan && text === registryContent) {
                 @Suppress("unchecked_cast")
-                if (listener != null) listener?.onTokenRemoved(what.token as T)
+                tokenRegistry.remove(what as TokenCompleteTextView<T>.TokenImageSpan)
+            }
+            if (what is TokenCompleteTextView<*>.TokenImageSpan && !savingState && !batchRemoveInProgress) {
+                @Suppress("unchecked_cast")
+                val span = what as TokenCompleteTextView<T>.TokenImageSpan
+                recycleTokenView(span)
+                if (listener != null) listener?.onTokenRemoved(span.token)
             }
         }
 
@@ -1175,12 +1993,14 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             text: Spannable, what: Any,
             oldStart: Int, oldEnd: Int, newStart: Int, newEnd: Int
         ) {
+            if (what is TokenCompleteTextView<*>.TokenImageSpan || what is HintSpan) editChanged()
         }
     }
 
     private inner class TokenTextWatcher : TextWatcher {
         var spansToRemove = ArrayList<TokenImageSpan>()
         override fun beforeTextChanged(s: CharSequence, start: Int, count: Int, after: Int) {
+            editChanged()
             if (internalEditInProgress || ignoreNextTextCommit) return
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -1207,6 +2027,9 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
         }
 
         override fun afterTextChanged(text: Editable) {
+            editChanged()
+            //Bulk removals update the hint and selection once they are done
+            if (batchRemoveInProgress) return
             if (!internalEditInProgress) {
                 val spansCopy = ArrayList(spansToRemove)
                 spansToRemove.clear()
@@ -1226,7 +2049,9 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             }
         }
 
-        override fun onTextChanged(s: CharSequence, start: Int, before: Int, count: Int) {}
+        override fun onTextChanged(s: CharSequence, start: Int, before: Int, count: Int) {
+            editChanged()
+        }
     }
 
     @Suppress("MemberVisibilityCanBePrivate")
@@ -1316,6 +2141,13 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
             return
         }
         super.onRestoreInstanceState(state.superState)
+        //Replacing the text drops the current tokens without removing their spans
+        val content: Spanned? = hiddenContent ?: text
+        if (tokenViewPool != null && content != null) {
+            @Suppress("unchecked_cast")
+            val spans = content.getSpans(0, content.length, TokenImageSpan::class.java) as Array<TokenImageSpan>
+            spans.forEach { recycleTokenView(it) }
+        }
         internalEditInProgress = true
         setText(state.prefix)
         prefix = state.prefix
@@ -1440,7 +2272,7 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
      * @return true if there are no non-deletable pieces of the section
      */
     fun canDeleteSelection(beforeLength: Int): Boolean {
-        if (objects.isEmpty()) return true
+        if (objectCount == 0) return true
 
         // if beforeLength is 1, we either have no selection or the call is coming from OnKey Event.
         // In these scenarios, getSelectionStart() will return the correct value.
@@ -1566,5 +2398,18 @@ abstract class TokenCompleteTextView<T: Any> : AppCompatAutoCompleteTextView, On
     companion object {
         //Logging
         const val TAG = "TokenAutoComplete"
+
+        const val DEFAULT_SUGGESTION_DEBOUNCE_MILLIS = 250L
+        const val DEFAULT_MAX_CONCURRENT_SUGGESTION_REQUESTS = 2
+
+        //Characters before the cursor to look for the previous token in, doubled until one is found
+        private const val CANDIDATE_SEARCH_WINDOW = 64
+
+        //Debounce timer shared by every view using a SuggestionSource
+        private val suggestionScheduler: ScheduledExecutorService by lazy {
+            Executors.newSingleThreadScheduledExecutor { runnable ->
+                Thread(runnable, "TokenAutoComplete-suggestions").apply { isDaemon = true }
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.tokenautocomplete
+
+import java.util.*
+
+/**
+ * Ordered list of token spans with a count of each token, so the number of tokens, the token at
+ * a position and whether a token is present can be answered without scanning the text
+ *
+ * TokenCompleteTextView keeps this in sync from its span watcher, and rebuilds it from the text
+ * when the text it mirrors is replaced.
+ *
+ * @param tokenOf the token a span displays
+ */
+internal class TokenRegistry<S : Any, T>(private val tokenOf: (S) -> T) {
+    private val spans = ArrayList<S>()
+    private val counts = HashMap<T, Int>()
+    //Read only copy of the tokens, dropped on every change
+    private var snapshot: List<T>? = null
+
+    val size: Int
+        get() = spans.size
+
+    operator fun get(index: Int): S {
+        return spans[index]
+    }
+
+    fun tokenAt(index: Int): T {
+        return tokenOf(spans[index])
+    }
+
+    operator fun contains(token: T): Boolean {
+        return counts.containsKey(token)
+    }
+
+    /**
+     * @return the tokens in span order. The list is not changed by later changes to the registry
+     */
+    fun tokens(): List<T> {
+        return snapshot ?: Collections.unmodifiableList(spans.map(tokenOf)).also { snapshot = it }
+    }
+
+    fun add(span: S) {
+        spans.add(span)
+        val token = tokenOf(span)
+        counts[token] = (counts[token] ?: 0) + 1
+        snapshot = null
+    }
+
+    /**
+     * @return false if the span was not registered
+     */
+    fun remove(span: S): Boolean {
+        //Tokens are usually removed from the end, so search from there
+        val index = spans.indexOfLast { it === span }
+        if (index == -1) return false
+        spans.removeAt(index)
+        val token = tokenOf(span)
+        val count = counts[token] ?: 0
+        if (count <= 1) counts.remove(token) else counts[token] = count - 1
+        snapshot = null
+        return true
+    }
+
+    /**
+     * Replace every span with spans, in order
+     */
+    fun reset(spans: Array<out S>) {
+        this.spans.clear()
+        counts.clear()
+        snapshot = null
+        spans.forEach { add(it) }
+    }
+}
@@ -0,0 +1,37 @@
+package com.tokenautocomplete
+
+/**
+ * Views of removed tokens kept for reuse, grouped by view type
+ *
+ * Only views of the same type are interchangeable, like the view types of a RecyclerView
+ * adapter. At most maxPerType views are kept for each type, extra views are dropped.
+ *
+ * @param maxPerType number of views to keep for each view type
+ */
+internal class TokenViewPool<V : Any>(private val maxPerType: Int) {
+    private val pools = HashMap<Int, ArrayList<V>>()
+
+    /**
+     * @return a view of viewType to rebind, or null if there are none left
+     */
+    fun acquire(viewType: Int): V? {
+        val pool = pools[viewType] ?: return null
+        return if (pool.isEmpty()) null else pool.removeAt(pool.size - 1)
+    }
+
+    /**
+     * Keep view for reuse
+     *
+     * @return false if the pool for viewType is full or already holds view
+     */
+    fun release(viewType: Int, view: V): Boolean {
+        val pool = pools.getOrPut(viewType) { ArrayList() }
+        if (pool.size >= maxPerType || pool.any { it === view }) return false
+        pool.add(view)
+        return true
+    }
+
+    fun size(viewType: Int): Int {
+        return pools[viewType]?.size ?: 0
+    }
+}
@@ -0,0 +1,104 @@
+package com.tokenautocomplete
+
+/**
+ * Keeps the highest scoring ids seen so far in a bounded min-heap
+ *
+ * Ties are broken in favour of lower ids, so objects earlier in the source list win. Offering
+ * n ids costs O(n log k) time and O(k) memory.
+ *
+ * @param limit maximum number of ids to keep
+ */
+internal class TopKCollector(private val limit: Int) {
+    private val scores = IntArray(limit)
+    private val ids = IntArray(limit)
+
+    var size = 0
+        private set
+
+    /**
+     * True once an id has been dropped because the collector was full
+     */
+    var overflowed = false
+        private set
+
+    fun offer(id: Int, score: Int) {
+        if (limit == 0) {
+            overflowed = true
+            return
+        }
+        if (size < limit) {
+            scores[size] = score
+            ids[size] = id
+            siftUp(size++)
+            return
+        }
+        overflowed = true
+        //The root is the worst id we are keeping
+        if (isWorse(score, id, scores[0], ids[0])) return
+        scores[0] = score
+        ids[0] = id
+        siftDown(0)
+    }
+
+    /**
+     * Offer everything kept by another collector
+     */
+    fun offerAll(other: TopKCollector) {
+        if (other.overflowed) overflowed = true
+        for (i in 0 until other.size) {
+            offer(other.ids[i], other.scores[i])
+        }
+    }
+
+    /**
+     * @return kept ids, best first
+     */
+    fun sortedIds(): IntArray {
+        val order = (0 until size).sortedWith { a, b ->
+            when {
+                isWorse(scores[a], ids[a], scores[b], ids[b]) -> 1
+                isWorse(scores[b], ids[b], scores[a], ids[a]) -> -1
+                else -> 0
+            }
+        }
+        return IntArray(size) { ids[order[it]] }
+    }
+
+    private fun isWorse(score: Int, id: Int, otherScore: Int, otherId: Int): Boolean {
+        return score < otherScore || (score == otherScore && id > otherId)
+    }
+
+    private fun siftUp(start: Int) {
+        var child = start
+        while (child > 0) {
+            val parent = (child - 1) / 2
+            if (!isWorse(scores[child], ids[child], scores[parent], ids[parent])) break
+            swap(child, parent)
+            child = parent
+        }
+    }
+
+    private fun siftDown(start: Int) {
+        var parent = start
+        while (true) {
+            var worst = parent
+            for (child in (2 * parent + 1)..(2 * parent + 2)) {
+                if (child < size && isWorse(scores[child], ids[child], scores[worst], ids[worst])) {
+                    worst = child
+                }
+            }
+            if (worst == parent) return
+            swap(parent, worst)
+            parent = worst
+        }
+    }
+
+    private fun swap(a: Int, b: Int) {
+        val score = scores[a]
+        scores[a] = scores[b]
+        scores[b] = score
+        val id = ids[a]
+        ids[a] = ids[b]
+        ids[b] = id
+    }
+}
@@ -0,0 +1,177 @@
+package com.tokenautocomplete
+
+import java.util.*
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Trigram inverted index over search keys, used to find candidates for a misspelled prefix
+ *
+ * Every key is padded at the start and split into overlapping three character grams, and each
+ * gram maps to the ascending ids of the objects with a key containing it. An edit changes at
+ * most [GRAMS_PER_EDIT] grams of the mask, so an object can only be within a few edits of the
+ * mask if its keys share enough grams with it. Candidates still have to be checked with
+ * [prefixDistance]. Masks too short to share at least [MIN_SHARED_GRAMS] grams after the edits
+ * can't be looked up, see [maxIndexedEdits].
+ */
+internal class TrigramIndex private constructor(
+    private val postings: Map<Long, IntArray>,
+    private val objectCount: Int
+) {
+    //Shared gram counts by object id, reused between searches. Taken while a search runs, so
+    //concurrent searches count in their own array
+    private val scratchCounts = AtomicReference<IntArray?>()
+
+    /**
+     * Number of distinct grams held in the index
+     */
+    val size: Int
+        get() = postings.size
+
+    /**
+     * Find all objects that could have a key starting within maxEdits edits of prefix
+     *
+     * @param prefix already normalized prefix to look for
+     * @param maxEdits number of edits allowed
+     * @return ids of candidate objects in ascending order, without duplicates, or null if prefix
+     * is too short to find candidates with maxEdits edits
+     */
+    fun find(prefix: String, maxEdits: Int): IntArray? {
+        val grams = grams(prefix).distinct()
+        val threshold = grams.size - maxEdits * GRAMS_PER_EDIT
+        //With fewer shared grams, nearly every key sharing a single gram would be a candidate
+        if (threshold < MIN_SHARED_GRAMS) return null
+        val lists = grams.mapNotNull { postings[it] }
+        if (lists.size < threshold) return IntArray(0)
+        val counts = scratchCounts.getAndSet(null) ?: IntArray(objectCount)
+        val matches = IntList()
+        for (ids in lists) {
+            for (id in ids) {
+                if (++counts[id] == threshold) matches.add(id)
+            }
+        }
+        //Only the counts of objects in these lists were changed
+        for (ids in lists) {
+            for (id in ids) counts[id] = 0
+        }
+        scratchCounts.set(counts)
+        val result = matches.toArray()
+        Arrays.sort(result)
+        return result
+    }
+
+    companion object {
+        //A substitution or transposition can change every gram overlapping the edited characters
+        private const val GRAMS_PER_EDIT = 4
+        /**
+         * Number of grams a key has to share with the mask to be a candidate
+         */
+        const val MIN_SHARED_GRAMS = 2
+        private const val PADDING = '\u0000'
+
+        /**
+         * @return the largest number of edits [find] can look up for a prefix of prefixLength
+         * characters, 0 if it can only look up exact prefixes
+         */
+        @JvmStatic
+        fun maxIndexedEdits(prefixLength: Int): Int {
+            return ((prefixLength - MIN_SHARED_GRAMS) / GRAMS_PER_EDIT).coerceAtLeast(0)
+        }
+
+        /**
+         * Build an index from per object search keys
+         *
+         * @param objectKeys normalized search keys for each object, indexed by object id.
+         * Objects with null keys are left out of the index
+         * @return the index
+         */
+        @JvmStatic
+        fun build(objectKeys: List<List<String>?>): TrigramIndex {
+            return build(KeyStore.of(objectKeys))
+        }
+
+        /**
+         * Build an index from the keys in a key store
+         */
+        @JvmStatic
+        fun build(store: KeyStore): TrigramIndex {
+            val lists = HashMap<Long, IntList>()
+            for (id in 0 until store.objectCount) {
+                for (key in store.firstKey(id) until store.endKey(id)) {
+                    var gram = gram(PADDING, PADDING, PADDING)
+                    for (i in 0 until store.keyLength(key)) {
+                        gram = nextGram(gram, store.charAt(key, i))
+                        val ids = lists.getOrPut(gram) { IntList(4) }
+                        //Ids are added in ascending order, so duplicates are always adjacent
+                        if (ids.size == 0 || ids[ids.size - 1] != id) ids.add(id)
+                    }
+                }
+            }
+            val postings = HashMap<Long, IntArray>(lists.size * 4 / 3 + 1)
+            for ((gram, ids) in lists) {
+                postings[gram] = ids.toArray()
+            }
+            return TrigramIndex(postings, store.objectCount)
+        }
+
+        /**
+         * Edit distance between pattern and the closest prefix of text, counting insertions,
+         * deletions, substitutions and transpositions of adjacent characters as one edit
+         *
+         * @return the distance, or maxEdits + 1 if it is larger than maxEdits
+         */
+        @JvmStatic
+        fun prefixDistance(pattern: String, text: CharSequence, maxEdits: Int): Int {
+            return prefixDistance(pattern, text, 0, text.length, maxEdits)
+        }
+
+        /**
+         * [prefixDistance] against the text between start and end of a char sequence
+         */
+        @JvmStatic
+        fun prefixDistance(pattern: String, text: CharSequence, start: Int, end: Int, maxEdits: Int): Int {
+            val columns = (end - start).coerceAtMost(pattern.length + maxEdits)
+            //Rows for the two previous pattern characters, indexed by text prefix length
+            var beforePrevious = IntArray(columns + 1)
+            var previous = IntArray(columns + 1) { it }
+            var current = IntArray(columns + 1)
+            for (i in 1..pattern.length) {
+                current[0] = i
+                var rowMin = i
+                for (j in 1..columns) {
+                    val cost = if (pattern[i - 1] == text[start + j - 1]) 0 else 1
+                    var distance = minOf(previous[j - 1] + cost, previous[j] + 1, current[j - 1] + 1)
+                    if (i > 1 && j > 1 && pattern[i - 1] == text[start + j - 2] &&
+                        pattern[i - 2] == text[start + j - 1]) {
+                        distance = distance.coerceAtMost(beforePrevious[j - 2] + 1)
+                    }
+                    current[j] = distance
+                    if (distance < rowMin) rowMin = distance
+                }
+                //Distances never shrink in later rows, so stop once every column is too far
+                if (rowMin > maxEdits) return maxEdits + 1
+                val recycled = beforePrevious
+                beforePrevious = previous
+                previous = current
+                current = recycled
+            }
+            return previous.minOrNull()!!.coerceAtMost(maxEdits + 1)
+        }
+
+        private fun grams(value: String): LongArray {
+            var gram = gram(PADDING, PADDING, PADDING)
+            return LongArray(value.length) { i ->
+                gram = nextGram(gram, value[i])
+                gram
+            }
+        }
+
+        private fun gram(first: Char, second: Char, third: Char): Long {
+            return (first.code.toLong() shl 32) or (second.code.toLong() shl 16) or third.code.toLong()
+        }
+
+        //Drop the first character of gram and add next at the end
+        private fun nextGram(gram: Long, next: Char): Long {
+            return ((gram shl 16) and 0xFFFFFFFF0000L) or next.code.toLong()
+        }
+    }
+}
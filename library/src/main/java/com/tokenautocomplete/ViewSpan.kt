@@ -1,12 +1,16 @@
 package com.tokenautocomplete
 
+import android.graphics.Bitmap
 import android.graphics.Canvas
 import android.graphics.Paint
 import android.graphics.Paint.FontMetricsInt
+import android.graphics.RenderNode
+import android.os.Build
 import android.text.style.ReplacementSpan
 import android.view.View
 import android.view.ViewGroup
 import androidx.annotation.IntRange
+import androidx.annotation.RequiresApi
 
 /**
  * Span that holds a view it draws when rendering
@@ -14,20 +18,164 @@ import androidx.annotation.IntRange
  * Created on 2/3/15.
  * @author mgod
  */
-open class ViewSpan(var view: View, private val layout: Layout) : ReplacementSpan() {
+open class ViewSpan : ReplacementSpan {
+    private val layout: Layout
+    private var boundView: View? = null
     private var cachedMaxWidth = -1
+    private var renderCache: RenderCache? = null
+    //Size of the view when it was last measured, kept when the view is released
+    private var measuredWidth = -1
+    private var measuredHeight = 0
+    private var measuredBaseline = 0
+
+    /**
+     * The view drawn by the span. If the view was released with [releaseView], a new one is
+     * created with [createView]
+     *
+     * @throws IllegalStateException if the span has no view and can't create one
+     */
+    var view: View
+        get() = boundView ?: createView()?.also { bindView(it) }
+            ?: throw IllegalStateException("This span draws without a view")
+        set(value) {
+            boundView = value
+        }
+
+    /**
+     * True if the span currently holds a view
+     */
+    val hasView: Boolean
+        get() = boundView != null
+
+    constructor(view: View, layout: Layout) : super() {
+        this.layout = layout
+        bindView(view)
+    }
+
+    /**
+     * For subclasses that draw without a view, by overriding [draw] and [getSize]
+     */
+    protected constructor(layout: Layout) : super() {
+        this.layout = layout
+    }
+
+    private fun bindView(view: View) {
+        boundView = view
+        view.layoutParams = ViewGroup.LayoutParams(
+            ViewGroup.LayoutParams.WRAP_CONTENT,
+            ViewGroup.LayoutParams.WRAP_CONTENT
+        )
+        //A new view has to be measured, even if the width available has not changed
+        cachedMaxWidth = -1
+    }
+
+    /**
+     * Drop the view and keep only its measured size, so the span can still be laid out without
+     * it. A view is created again with [createView] the next time the span is drawn, or laid out
+     * with a different maximum width. A rendering recorded with [renderCaching] is left to the
+     * display lists that already draw it, and recorded again for the next view.
+     *
+     * @return the released view, or null if the span held no view
+     */
+    protected fun releaseView(): View? {
+        val view = boundView ?: return null
+        //Dropped without releasing it: the text field keeps display lists of lines it drew
+        //earlier, and replays them without drawing the span again
+        renderCache = null
+        boundView = null
+        return view
+    }
+
+    /**
+     * Override to create a view for the span after [releaseView]
+     *
+     * @return a view displaying the same content as the released one, or null if there is none.
+     * Defaults to null
+     */
+    protected open fun createView(): View? {
+        return null
+    }
+
+    /**
+     * Override to measure the span without creating a view for it with [createView], when the
+     * view was released and the maximum width changed
+     *
+     * @return a view displaying the same content as the released one, to measure and then give
+     * back with [onMeasured]. It is not kept by the span. Defaults to null
+     */
+    protected open fun measureView(): View? {
+        return null
+    }
+
+    /**
+     * Called with the view returned by [measureView] once it has been measured
+     */
+    protected open fun onMeasured(view: View) {}
+
+    /**
+     * Record the rendering of the view once and replay it on later draws, instead of drawing
+     * the whole view hierarchy every time the text is drawn. The recording is redone when the
+     * view is laid out again, when its drawable state changes (like being selected), when the
+     * maximum width changes or, from API 21, when the view was invalidated, like after loading
+     * an image of the same size. On earlier versions call [invalidateCache] after changing the
+     * view without laying it out again. Defaults to false.
+     */
+    var renderCaching = false
+        set(value) {
+            field = value
+            if (!value) invalidateCache()
+        }
+
+    /**
+     * Drop the recorded rendering, so the view is drawn again on the next draw
+     */
+    fun invalidateCache() {
+        renderCache?.release()
+        renderCache = null
+    }
+
+    /**
+     * Drop the recorded rendering if the view was invalidated since it was recorded. Views
+     * that are only drawn by a span have no parent to pass the invalidation on to, so the text
+     * holding the span has to be drawn again to show the change.
+     *
+     * @return true if the rendering was dropped. Always false before API 21
+     */
+    fun invalidateCacheIfDirty(): Boolean {
+        if (renderCache == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false
+        if (boundView?.isDirty != true) return false
+        invalidateCache()
+        return true
+    }
+
     private fun prepView() {
+        val view = view
         if (layout.maxViewSpanWidth != cachedMaxWidth || view.isLayoutRequested) {
+            invalidateCache()
             cachedMaxWidth = layout.maxViewSpanWidth
-            var spec = View.MeasureSpec.AT_MOST
-            if (cachedMaxWidth == 0) {
-                //If the width is 0, allow the view to choose it's own content size
-                spec = View.MeasureSpec.UNSPECIFIED
-            }
-            val widthSpec = View.MeasureSpec.makeMeasureSpec(cachedMaxWidth, spec)
-            val heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
-            view.measure(widthSpec, heightSpec)
-            view.layout(0, 0, view.measuredWidth, view.measuredHeight)
+            measure(view, cachedMaxWidth)
+        }
+    }
+
+    private fun measure(view: View, maxWidth: Int) {
+        var spec = View.MeasureSpec.AT_MOST
+        if (maxWidth == 0) {
+            //If the width is 0, allow the view to choose it's own content size
+            spec = View.MeasureSpec.UNSPECIFIED
+        }
+        val widthSpec = View.MeasureSpec.makeMeasureSpec(maxWidth, spec)
+        val heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED)
+        view.measure(widthSpec, heightSpec)
+        view.layout(0, 0, view.measuredWidth, view.measuredHeight)
+    }
+
+    private fun keepSize(view: View) {
+        measuredWidth = view.right
+        measuredHeight = view.measuredHeight
+        measuredBaseline = view.baseline
+        //-1 means the view doesn't support baseline alignment, so align bottom to font baseline
+        if (measuredBaseline == -1) {
+            measuredBaseline = measuredHeight
         }
     }
 
@@ -38,39 +186,115 @@ open class ViewSpan(var view: View, private val layout: Layout) : ReplacementSpa
         prepView()
         canvas.save()
         canvas.translate(x, top.toFloat())
-        view.draw(canvas)
+        if (!renderCaching || !drawCached(canvas)) {
+            view.draw(canvas)
+        }
         canvas.restore()
     }
 
+    /**
+     * Draw the recorded rendering of the view, recording it first if needed
+     *
+     * @return false if the view has to be drawn directly
+     */
+    private fun drawCached(canvas: Canvas): Boolean {
+        val width = view.width
+        val height = view.height
+        if (width <= 0 || height <= 0) return false
+        //Recording the view draws it, which clears the dirty flag
+        invalidateCacheIfDirty()
+        val hardware = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated
+        var cache = renderCache
+        //A new array is created every time the drawable state changes
+        val drawableState = view.drawableState
+        if (cache == null || cache.drawableState !== drawableState) {
+            cache?.release()
+            cache = if (hardware) NodeCache(view, drawableState) else BitmapCache(view, drawableState)
+            renderCache = cache
+        } else if (cache is NodeCache && !canvas.isHardwareAccelerated) {
+            //Render nodes can only be drawn by hardware canvases, like when taking a screenshot
+            return false
+        }
+        cache.draw(canvas)
+        return true
+    }
+
     override fun getSize(
         paint: Paint, charSequence: CharSequence, @IntRange(from = 0) start: Int,
         @IntRange(from = 0) end: Int, fontMetricsInt: FontMetricsInt?
     ): Int {
-        prepView()
+        val maxWidth = layout.maxViewSpanWidth
+        if (boundView != null) {
+            prepView()
+            keepSize(view)
+        } else if (measuredWidth == -1 || maxWidth != cachedMaxWidth) {
+            //A released view doesn't come back just to be measured
+            val scratch = measureView()
+            if (scratch != null) {
+                measure(scratch, maxWidth)
+                cachedMaxWidth = maxWidth
+                keepSize(scratch)
+                onMeasured(scratch)
+            } else {
+                prepView()
+                keepSize(view)
+            }
+        }
         if (fontMetricsInt != null) {
             //We need to make sure the layout allots enough space for the view
-            val height = view.measuredHeight
-            var adjustedBaseline = view.baseline
-            //-1 means the view doesn't support baseline alignment, so align bottom to font baseline
-            if (adjustedBaseline == -1) {
-                adjustedBaseline = height
-            }
-            fontMetricsInt.top = -adjustedBaseline
+            fontMetricsInt.top = -measuredBaseline
             fontMetricsInt.ascent = fontMetricsInt.top
-            fontMetricsInt.bottom = height - adjustedBaseline
+            fontMetricsInt.bottom = measuredHeight - measuredBaseline
             fontMetricsInt.descent = fontMetricsInt.bottom
         }
-        return view.right
+        return measuredWidth
     }
 
-    interface Layout {
-        val maxViewSpanWidth: Int
+    private abstract class RenderCache(val drawableState: IntArray) {
+        abstract fun draw(canvas: Canvas)
+        abstract fun release()
     }
 
-    init {
-        view.layoutParams = ViewGroup.LayoutParams(
-            ViewGroup.LayoutParams.WRAP_CONTENT,
-            ViewGroup.LayoutParams.WRAP_CONTENT
-        )
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private class NodeCache(view: View, drawableState: IntArray) : RenderCache(drawableState) {
+        private val node = RenderNode("ViewSpan")
+
+        init {
+            node.setPosition(0, 0, view.width, view.height)
+            val recording = node.beginRecording(view.width, view.height)
+            try {
+                view.draw(recording)
+            } finally {
+                node.endRecording()
+            }
+        }
+
+        override fun draw(canvas: Canvas) {
+            canvas.drawRenderNode(node)
+        }
+
+        override fun release() {
+            node.discardDisplayList()
+        }
+    }
+
+    private class BitmapCache(view: View, drawableState: IntArray) : RenderCache(drawableState) {
+        private val bitmap = Bitmap.createBitmap(view.width, view.height, Bitmap.Config.ARGB_8888)
+
+        init {
+            view.draw(Canvas(bitmap))
+        }
+
+        override fun draw(canvas: Canvas) {
+            canvas.drawBitmap(bitmap, 0f, 0f, null)
+        }
+
+        override fun release() {
+            //Not recycled, a frame that is still being rendered may draw it
+        }
+    }
+
+    interface Layout {
+        val maxViewSpanWidth: Int
     }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package com.tokenautocomplete
+
+import java.util.*
+
+/**
+ * Inverted index from the start of every word in the search keys to the objects containing it
+ *
+ * Each word of a key is indexed under its first one to [MAX_PREFIX_LENGTH] characters, and each
+ * prefix maps to the ascending ids of the objects with a word starting with it. A query with
+ * several words looks up one list per word and intersects them, starting with the shortest.
+ * Query words longer than [MAX_PREFIX_LENGTH] characters are looked up by their start, so
+ * candidates still have to be checked with [KeyStore.startsWord].
+ */
+internal class WordStartIndex private constructor(private val postings: Map<String, IntArray>) {
+    /**
+     * Number of distinct prefixes held in the index
+     */
+    val size: Int
+        get() = postings.size
+
+    /**
+     * Find all objects that could have a word starting with each of the query words
+     *
+     * @param words already normalized words to look for, see [words]
+     * @return ids of candidate objects in ascending order, without duplicates
+     */
+    fun find(words: List<String>): IntArray {
+        val lists = words.map {
+            postings[it.take(MAX_PREFIX_LENGTH)] ?: return IntArray(0)
+        }.sortedBy { it.size }
+        var result = lists.firstOrNull() ?: return IntArray(0)
+        for (i in 1 until lists.size) {
+            if (result.isEmpty()) break
+            result = intersect(result, lists[i])
+        }
+        return result
+    }
+
+    companion object {
+        /**
+         * Longest word start held in the index
+         */
+        const val MAX_PREFIX_LENGTH = 3
+
+        /**
+         * Build an index from per object search keys
+         *
+         * @param objectKeys normalized search keys for each object, indexed by object id.
+         * Objects with null keys are left out of the index
+         * @return the index
+         */
+        @JvmStatic
+        fun build(objectKeys: List<List<String>?>): WordStartIndex {
+            return build(KeyStore.of(objectKeys))
+        }
+
+        /**
+         * Build an index from the keys in a key store
+         */
+        @JvmStatic
+        fun build(store: KeyStore): WordStartIndex {
+            val lists = HashMap<String, IntList>()
+            val prefix = StringBuilder(MAX_PREFIX_LENGTH)
+            for (id in 0 until store.objectCount) {
+                for (key in store.firstKey(id) until store.endKey(id)) {
+                    for (i in 0 until store.keyLength(key)) {
+                        val c = store.charAt(key, i)
+                        if (!c.isLetterOrDigit()) {
+                            prefix.setLength(0)
+                        } else if (i == 0 || !store.charAt(key, i - 1).isLetterOrDigit() ||
+                            prefix.isNotEmpty() && prefix.length < MAX_PREFIX_LENGTH) {
+                            //Index every start of a word, up to MAX_PREFIX_LENGTH characters
+                            prefix.append(c)
+                            val ids = lists.getOrPut(prefix.toString()) { IntList(4) }
+                            //Ids are added in ascending order, so duplicates are always adjacent
+                            if (ids.size == 0 || ids[ids.size - 1] != id) ids.add(id)
+                        } else {
+                            prefix.setLength(0)
+                        }
+                    }
+                    prefix.setLength(0)
+                }
+            }
+            val postings = HashMap<String, IntArray>(lists.size * 4 / 3 + 1)
+            for ((start, ids) in lists) {
+                postings[start] = ids.toArray()
+            }
+            return WordStartIndex(postings)
+        }
+
+        /**
+         * Split a normalized string into words of letters and digits
+         */
+        @JvmStatic
+        fun words(value: String): List<String> {
+            val words = ArrayList<String>()
+            var start = -1
+            for (i in 0..value.length) {
+                val inWord = i < value.length && value[i].isLetterOrDigit()
+                if (inWord && start == -1) {
+                    start = i
+                } else if (!inWord && start != -1) {
+                    words.add(value.substring(start, i))
+                    start = -1
+                }
+            }
+            return words
+        }
+
+        /**
+         * Intersect two ascending id arrays. Ids of the shorter array are binary searched in
+         * the longer one, so a short list costs little against a long one.
+         */
+        private fun intersect(shorter: IntArray, longer: IntArray): IntArray {
+            val result = IntArray(shorter.size)
+            var count = 0
+            var from = 0
+            for (id in shorter) {
+                val position = Arrays.binarySearch(longer, from, longer.size, id)
+                if (position >= 0) {
+                    result[count++] = id
+                    from = position + 1
+                } else {
+                    from = -position - 1
+                }
+                if (from == longer.size) break
+            }
+            return result.copyOf(count)
+        }
+    }
+}
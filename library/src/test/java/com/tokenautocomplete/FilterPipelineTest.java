@@ -0,0 +1,192 @@
+package com.tokenautocomplete;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import kotlin.coroutines.Continuation;
+import kotlinx.coroutines.CompletableDeferred;
+import kotlinx.coroutines.CompletableDeferredKt;
+import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.Job;
+import kotlinx.coroutines.JobKt;
+import kotlinx.coroutines.test.TestCoroutineScheduler;
+import kotlinx.coroutines.test.TestCoroutineDispatchersKt;
+import kotlinx.coroutines.test.TestDispatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterPipelineTest {
+
+    private TestCoroutineScheduler scheduler;
+    private CoroutineScope scope;
+    private RecordingListener listener;
+    private FilterPipeline<String> pipeline;
+    private FakeServer server;
+
+    @Before
+    public void setup() {
+        scheduler = new TestCoroutineScheduler();
+        TestDispatcher dispatcher = TestCoroutineDispatchersKt.StandardTestDispatcher(scheduler, null);
+        scope = CoroutineScopeKt.CoroutineScope(dispatcher);
+        listener = new RecordingListener();
+        pipeline = new FilterPipeline<>(dispatcher, listener);
+        server = new FakeServer();
+        pipeline.start(scope);
+    }
+
+    @After
+    public void tearDown() {
+        CoroutineScopeKt.cancel(scope, null);
+    }
+
+    @Test
+    public void testResultsAreDelivered() {
+        pipeline.onQuery("jo", server);
+        scheduler.advanceUntilIdle();
+
+        assertEquals(Collections.singletonList("jo"), listener.queries);
+        assertEquals(Collections.singletonList("jo result"), listener.results.get(0));
+    }
+
+    @Test
+    public void testNewerQueryCancelsRunningSearch() {
+        server.holdAnswer("slow");
+        pipeline.onQuery("slow", server);
+        scheduler.runCurrent();
+        pipeline.onQuery("joh", server);
+        scheduler.advanceUntilIdle();
+
+        assertEquals(Collections.singletonList("joh"), listener.queries);
+        assertTrue(server.job("slow").isCancelled());
+    }
+
+    @Test
+    public void testOnlyLatestQueryWaits() {
+        server.holdAnswer("j");
+        pipeline.onQuery("j", server);
+        scheduler.runCurrent();
+        pipeline.onQuery("jo", server);
+        pipeline.onQuery("joh", server);
+        scheduler.advanceUntilIdle();
+
+        assertEquals(Collections.singletonList("joh"), listener.queries);
+        assertEquals(0, server.searchCount("jo"));
+    }
+
+    @Test
+    public void testErrorsAreDelivered() {
+        pipeline.onQuery("fail", server);
+        scheduler.advanceUntilIdle();
+
+        assertEquals(Collections.singletonList("fail"), listener.errors);
+        assertEquals(0, listener.queries.size());
+    }
+
+    @Test
+    public void testStopDropsResults() {
+        server.holdAnswer("slow");
+        pipeline.onQuery("slow", server);
+        scheduler.runCurrent();
+        pipeline.stop();
+        server.answer("slow");
+        scheduler.advanceUntilIdle();
+
+        assertEquals(0, listener.queries.size());
+        assertTrue(server.job("slow").isCancelled());
+    }
+
+    @Test
+    public void testRestartDoesNotSearchAgain() {
+        pipeline.onQuery("jo", server);
+        scheduler.advanceUntilIdle();
+        pipeline.stop();
+        pipeline.start(scope);
+        scheduler.advanceUntilIdle();
+
+        assertEquals(1, server.searchCount("jo"));
+        assertEquals(Collections.singletonList("jo"), listener.queries);
+    }
+
+    @Test
+    public void testRestartDropsUnansweredQuery() {
+        server.holdAnswer("slow");
+        pipeline.onQuery("slow", server);
+        scheduler.runCurrent();
+        pipeline.stop();
+        pipeline.start(scope);
+        scheduler.advanceUntilIdle();
+
+        assertEquals(1, server.searchCount("slow"));
+        assertEquals(0, listener.queries.size());
+    }
+
+    /**
+     * Answers right away, except for held queries which wait for {@link #answer}, and "fail"
+     * which throws
+     */
+    private static class FakeServer implements SuspendFilterable<String> {
+        private final Map<String, CompletableDeferred<List<String>>> held = new HashMap<>();
+        private final Map<String, Job> jobs = new HashMap<>();
+        private final Map<String, Integer> searches = new HashMap<>();
+
+        void holdAnswer(String query) {
+            held.put(query, CompletableDeferredKt.<List<String>>CompletableDeferred(null));
+        }
+
+        void answer(String query) {
+            held.get(query).complete(Collections.singletonList(query + " result"));
+        }
+
+        Job job(String query) {
+            return jobs.get(query);
+        }
+
+        int searchCount(String query) {
+            Integer count = searches.get(query);
+            return count == null ? 0 : count;
+        }
+
+        @Override
+        public Object search(String constraint, Continuation<? super List<String>> continuation) {
+            searches.put(constraint, searchCount(constraint) + 1);
+            jobs.put(constraint, JobKt.getJob(continuation.getContext()));
+            if (constraint.equals("fail")) {
+                throw new IllegalStateException("search failed");
+            }
+            CompletableDeferred<List<String>> answer = held.get(constraint);
+            if (answer != null) {
+                return answer.await(continuation);
+            }
+            return Collections.singletonList(constraint + " result");
+        }
+
+        @Override
+        public void showResults(List<String> results) {}
+    }
+
+    private static class RecordingListener implements FilterPipeline.Listener<String> {
+        final List<String> queries = new ArrayList<>();
+        final List<List<String>> results = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void onResults(String query, List<String> results) {
+            queries.add(query);
+            this.results.add(results);
+        }
+
+        @Override
+        public void onError(String query, Throwable error) {
+            errors.add(query);
+        }
+    }
+}
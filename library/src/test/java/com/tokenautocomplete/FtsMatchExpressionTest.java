@@ -0,0 +1,44 @@
+package com.tokenautocomplete;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FtsMatchExpressionTest {
+
+    @Test
+    public void testEmptyConstraintListsEveryRow() {
+        assertNull(FtsMatchExpression.build(null));
+        assertNull(FtsMatchExpression.build(""));
+    }
+
+    @Test
+    public void testConstraintWithoutWordsMatchesNothing() {
+        assertEquals("", FtsMatchExpression.build(" ,.@ "));
+    }
+
+    @Test
+    public void testEveryWordIsAQuotedPrefix() {
+        assertEquals("\"jo*\"", FtsMatchExpression.build("jo"));
+        assertEquals("\"john*\" \"sm*\"", FtsMatchExpression.build("john sm"));
+        assertEquals("\"mgod*\" \"example*\" \"com*\"", FtsMatchExpression.build("mgod@example.com"));
+    }
+
+    @Test
+    public void testOperatorsAreSearchedFor() {
+        assertEquals("\"tom*\" \"OR*\" \"NOT*\"", FtsMatchExpression.build("tom OR NOT"));
+        assertEquals("\"NEAR*\" \"AND*\"", FtsMatchExpression.build("NEAR AND"));
+    }
+
+    @Test
+    public void testSpecialCharactersAreDropped() {
+        assertEquals("\"a*\" \"b*\"", FtsMatchExpression.build("a\"b"));
+        assertEquals("\"jo*\"", FtsMatchExpression.build("-jo*"));
+    }
+
+    @Test
+    public void testLettersOutsideAscii() {
+        assertEquals("\"J\u00fcrgen*\" \"\u5c71\u7530*\"", FtsMatchExpression.build("J\u00fcrgen \u5c71\u7530"));
+    }
+}
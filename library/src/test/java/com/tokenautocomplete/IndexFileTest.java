@@ -0,0 +1,70 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private KeyStore keys;
+
+    @Before
+    public void setup() throws Exception {
+        file = new File(folder.getRoot(), "index.bin");
+        keys = KeyStore.of(Arrays.asList(
+                Arrays.asList("marshall", "mgod@example.com"),
+                null,
+                Collections.singletonList("margaret"),
+                Collections.singletonList("zo\u00eb")));
+        assertTrue(new IndexFile(file, 7).save(keys, PrefixIndex.build(keys), "en_US"));
+    }
+
+    @Test
+    public void testLoadSavedKeysAndIndex() {
+        IndexFile.Loaded loaded = new IndexFile(file, 7).load(4, "en_US");
+        assertNotNull(loaded);
+        assertEquals(Arrays.asList("marshall", "mgod@example.com"), loaded.getKeys().keys(0));
+        assertNull(loaded.getKeys().keys(1));
+        assertEquals(Collections.singletonList("zo\u00eb"), loaded.getKeys().keys(3));
+        assertArrayEquals(new int[]{0, 2}, loaded.getIndex().find("mar"));
+        assertArrayEquals(new int[]{0}, loaded.getIndex().find("mg"));
+    }
+
+    @Test
+    public void testStaleFilesAreIgnored() {
+        assertNull(new IndexFile(file, 8).load(4, "en_US"));
+        assertNull(new IndexFile(file, 7).load(5, "en_US"));
+        assertNull(new IndexFile(file, 7).load(4, "tr_TR"));
+        assertNull(new IndexFile(new File(folder.getRoot(), "missing.bin"), 7).load(4, "en_US"));
+    }
+
+    @Test
+    public void testCorruptFilesAreIgnored() throws Exception {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.seek(output.length() - 6);
+            output.write(0x7f);
+        }
+        assertNull(new IndexFile(file, 7).load(4, "en_US"));
+
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(20);
+        }
+        assertNull(new IndexFile(file, 7).load(4, "en_US"));
+    }
+}
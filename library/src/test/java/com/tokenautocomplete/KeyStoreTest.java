@@ -0,0 +1,68 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyStoreTest {
+
+    private KeyStore store;
+
+    @Before
+    public void setup() {
+        store = KeyStore.of(Arrays.asList(
+                Arrays.asList("anne smith", "anne@example.com"),
+                null,
+                Collections.<String>emptyList(),
+                Collections.singletonList("jon")));
+    }
+
+    @Test
+    public void testKeysArePackedByObject() {
+        assertEquals(4, store.getObjectCount());
+        assertEquals(3, store.getKeyCount());
+        assertEquals(Arrays.asList("anne smith", "anne@example.com"), store.keys(0));
+        assertNull(store.keys(1));
+        assertEquals(Collections.emptyList(), store.keys(2));
+        assertTrue(store.hasKeys(2));
+        assertEquals(2, store.firstKey(3));
+        assertEquals("jon", store.keyString(2));
+    }
+
+    @Test
+    public void testMatching() {
+        assertTrue(store.startsWith(0, "anne s"));
+        assertFalse(store.startsWith(0, "smith"));
+        assertTrue(store.startsWord(0, "smith"));
+        assertTrue(store.startsWord(1, "example"));
+        assertFalse(store.startsWord(1, "xample"));
+        assertEquals(1, store.prefixDistance("jno", 2, 2));
+    }
+
+    @Test
+    public void testCompareMatchesStrings() {
+        assertEquals(0, Integer.signum(store.compare(2, "jon")));
+        assertEquals(Integer.signum("jon".compareTo("jo")), Integer.signum(store.compare(2, "jo")));
+        assertEquals(Integer.signum("anne smith".compareTo("anne@example.com")),
+                Integer.signum(store.compare(0, 1)));
+    }
+
+    @Test
+    public void testCopyFromAnotherStore() {
+        KeyStore copy = new KeyStore.Builder()
+                .addFrom(store, 3)
+                .addFrom(store, 1)
+                .add(Collections.singletonList("new"))
+                .build();
+        assertEquals(Collections.singletonList("jon"), copy.keys(0));
+        assertNull(copy.keys(1));
+        assertEquals(Collections.singletonList("new"), copy.keys(2));
+    }
+}
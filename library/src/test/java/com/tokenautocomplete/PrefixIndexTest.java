@@ -0,0 +1,61 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PrefixIndexTest {
+
+    private PrefixIndex index;
+
+    @Before
+    public void setup() {
+        List<List<String>> keys = Arrays.asList(
+                Arrays.asList("marshall", "mgod@example.com"),
+                Arrays.asList("margaret", "maggie@example.com"),
+                null,
+                Arrays.asList("john", "johnny@example.com"),
+                Collections.singletonList("mark"));
+        index = PrefixIndex.build(keys);
+    }
+
+    @Test
+    public void testPrefixLookup() {
+        assertArrayEquals(new int[]{0, 1, 4}, index.find("mar"));
+        assertArrayEquals(new int[]{4}, index.find("mark"));
+        assertArrayEquals(new int[]{3}, index.find("j"));
+    }
+
+    @Test
+    public void testObjectsMatchingSeveralKeysAreReturnedOnce() {
+        assertArrayEquals(new int[]{3}, index.find("john"));
+        assertArrayEquals(new int[]{0, 1, 4}, index.find("m"));
+    }
+
+    @Test
+    public void testNoMatches() {
+        assertArrayEquals(new int[0], index.find("zed"));
+        assertArrayEquals(new int[0], index.find("marshalls"));
+    }
+
+    @Test
+    public void testEmptyPrefixMatchesEveryIndexedObject() {
+        assertArrayEquals(new int[]{0, 1, 3, 4}, index.find(""));
+        assertEquals(7, index.getSize());
+    }
+
+    @Test
+    public void testTypoCandidatesStartWithFirstOrSecondCharacter() {
+        assertArrayEquals(new int[]{3}, index.findWithTypo("jhon"));
+        //Swapped first characters
+        assertArrayEquals(new int[]{0, 1, 4}, index.findWithTypo("amrk"));
+        //A typo in the first character is not looked up
+        assertArrayEquals(new int[0], index.findWithTypo("ohn"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.tokenautocomplete;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class QueryResultCacheTest {
+
+    private static final Object SOURCE = new Object();
+
+    @Test
+    public void testHitsAndMisses() {
+        QueryResultCache cache = new QueryResultCache(10, 10000);
+        assertNull(cache.get("jo", SOURCE));
+        cache.put("jo", SOURCE, new int[]{1, 2}, true, cache.getVersion());
+        assertArrayEquals(new int[]{1, 2}, cache.get("jo", SOURCE).getIds());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        QueryResultCache cache = new QueryResultCache(2, 10000);
+        cache.put("a", SOURCE, new int[]{1}, true, cache.getVersion());
+        cache.put("b", SOURCE, new int[]{2}, true, cache.getVersion());
+        cache.get("a", SOURCE);
+        cache.put("c", SOURCE, new int[]{3}, true, cache.getVersion());
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("b", SOURCE));
+        assertArrayEquals(new int[]{1}, cache.get("a", SOURCE).getIds());
+    }
+
+    @Test
+    public void testByteBudget() {
+        QueryResultCache cache = new QueryResultCache(100, 900);
+        cache.put("a", SOURCE, new int[100], true, cache.getVersion());
+        cache.put("b", SOURCE, new int[100], true, cache.getVersion());
+        assertEquals(1, cache.getSize());
+        assertNull(cache.get("a", SOURCE));
+
+        //Results larger than the whole budget are never cached
+        cache.put("c", SOURCE, new int[1000], true, cache.getVersion());
+        assertNull(cache.get("c", SOURCE));
+    }
+
+    @Test
+    public void testResultsFromBeforeClearAreDiscarded() {
+        QueryResultCache cache = new QueryResultCache(10, 10000);
+        int version = cache.getVersion();
+        cache.clear();
+        cache.put("jo", SOURCE, new int[]{1}, true, version);
+        assertNull(cache.get("jo", SOURCE));
+    }
+
+    @Test
+    public void testResultsForAnotherSourceAreMisses() {
+        QueryResultCache cache = new QueryResultCache(10, 10000);
+        cache.put("jo", SOURCE, new int[]{1}, true, cache.getVersion());
+        assertNull(cache.get("jo", new Object()));
+        assertEquals(1, cache.getMissCount());
+        assertArrayEquals(new int[]{1}, cache.get("jo", SOURCE).getIds());
+    }
+}
@@ -0,0 +1,32 @@
+package com.tokenautocomplete;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class SearchKeyNormalizerTest {
+
+    @Test
+    public void testCaseFolding() {
+        SearchKeyNormalizer normalizer = new SearchKeyNormalizer(Locale.US);
+        assertEquals("marshall weir", normalizer.normalize("Marshall WEIR"));
+        assertEquals("mgod@example.com", normalizer.normalize("mgod@example.com"));
+    }
+
+    @Test
+    public void testAccentsAreRemoved() {
+        SearchKeyNormalizer normalizer = new SearchKeyNormalizer(Locale.US);
+        assertEquals("zoe", normalizer.normalize("Zo\u00eb"));
+        assertEquals("francois", normalizer.normalize("FRAN\u00c7OIS"));
+        assertEquals("angstrom", normalizer.normalize("\u00c5ngstr\u00f6m"));
+    }
+
+    @Test
+    public void testLocaleAwareCaseFolding() {
+        SearchKeyNormalizer turkish = new SearchKeyNormalizer(new Locale("tr"));
+        assertEquals("\u0131stanbul", turkish.normalize("ISTANBUL"));
+        assertEquals("istanbul", new SearchKeyNormalizer(Locale.US).normalize("ISTANBUL"));
+    }
+}
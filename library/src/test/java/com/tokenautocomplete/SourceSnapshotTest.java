@@ -0,0 +1,121 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SourceSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SourceSnapshot<String> snapshot;
+
+    @Before
+    public void setup() {
+        snapshot = SourceSnapshot.of(Arrays.asList("Marshall", "Margaret", "John"),
+                new SearchKeyNormalizer(Locale.US),
+                Collections::singletonList);
+    }
+
+    @Test
+    public void testChangesDoNotAffectEarlierSnapshots() {
+        SourceSnapshot<String> added = snapshot.plus(Collections.singletonList("Mark"));
+        SourceSnapshot<String> removed = added.minus(0);
+        SourceSnapshot<String> updated = removed.replaced(2, "Jon");
+
+        assertEquals(Arrays.asList("Marshall", "Margaret", "John"), snapshot.liveObjects(-1));
+        assertEquals(Arrays.asList("Marshall", "Margaret", "John", "Mark"), added.liveObjects(-1));
+        assertEquals(Arrays.asList("Margaret", "John", "Mark"), removed.liveObjects(-1));
+        assertEquals(Arrays.asList("Margaret", "Jon", "Mark"), updated.liveObjects(-1));
+        assertEquals(Arrays.asList("Margaret", "Jon"), updated.liveObjects(2));
+
+        assertFalse(updated.isLive(0));
+        assertEquals(3, updated.getCount());
+        assertEquals(4, updated.getSize());
+        assertEquals(-1, updated.indexOf("Marshall"));
+        assertEquals(3, updated.indexOf("Mark"));
+    }
+
+    @Test
+    public void testIndexFileIsUsedAfterKeysWereBuilt() {
+        File file = new File(folder.getRoot(), "index.bin");
+        SourceSnapshot<String> updated = snapshot.replaced(2, "Jon");
+        updated.prefixIndex();
+        SourceSnapshot<String> persistent = updated.withIndexFile(new IndexFile(file, 1));
+
+        assertArrayEquals(new int[]{0, 1}, persistent.prefixIndex().find("mar"));
+        assertEquals(Collections.singletonList("jon"), persistent.keysOf(2));
+        assertTrue(file.exists());
+        IndexFile.Loaded loaded = new IndexFile(file, 1).load(3, "en_US");
+        assertNotNull(loaded);
+        assertEquals(Collections.singletonList("jon"), loaded.getKeys().keys(2));
+    }
+
+    @Test
+    public void testKeysAreUpdatedWithoutRebuilding() {
+        assertEquals(Collections.singletonList("john"), snapshot.keysOf(2));
+        SourceSnapshot<String> updated = snapshot.replaced(2, "Jon").minus(0);
+        assertEquals(Collections.singletonList("jon"), updated.keysOf(2));
+    }
+
+    @Test
+    public void testIndexesAreSharedAndChangesListed() {
+        PrefixIndex index = snapshot.prefixIndex();
+        SourceSnapshot<String> updated = snapshot
+                .plus(Collections.singletonList("Mark"))
+                .replaced(1, "Meg");
+
+        assertEquals(index, updated.prefixIndex());
+        assertArrayEquals(new int[]{1, 3}, updated.getChanges());
+        //The index still reflects the objects it was built from
+        assertArrayEquals(new int[]{0, 1}, updated.prefixIndex().find("mar"));
+    }
+
+    @Test
+    public void testManyChangesStartNewIndexes() {
+        PrefixIndex index = snapshot.prefixIndex();
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            added.add("Person " + i);
+        }
+        SourceSnapshot<String> updated = snapshot.plus(added);
+
+        assertEquals(0, updated.getChanges().length);
+        assertFalse(index == updated.prefixIndex());
+        assertEquals(2003, updated.prefixIndex().find("").length);
+        assertEquals("Person 1999", updated.get(2002));
+    }
+
+    @Test
+    public void testRemovingMostObjectsCompactsIds() {
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            added.add("Person " + i);
+        }
+        SourceSnapshot<String> updated = snapshot.plus(added);
+        for (int i = 0; i < 2500; i++) {
+            updated = updated.minus(updated.indexOf("Person " + i));
+        }
+
+        //Compacted once more than half of the ids were removed, later removals leave tombstones
+        assertEquals(503, updated.getCount());
+        assertEquals(1501, updated.getSize());
+        assertEquals(1001, updated.indexOf("Person 2500"));
+        assertEquals(Collections.singletonList("person 2999"), updated.keysOf(1500));
+    }
+}
@@ -0,0 +1,281 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionControllerTest {
+
+    private FakeScheduler scheduler;
+    private FakeServer server;
+    private RecordingListener listener;
+
+    @Before
+    public void setup() {
+        scheduler = new FakeScheduler();
+        listener = new RecordingListener();
+    }
+
+    private SuggestionController<String> controller(long latencyMillis, long debounceMillis, int maxConcurrent) {
+        server = new FakeServer(scheduler, latencyMillis);
+        return new SuggestionController<>(server, debounceMillis, maxConcurrent,
+                scheduler, Runnable::run, listener);
+    }
+
+    @Test
+    public void testKeystrokesAreDebounced() {
+        SuggestionController<String> controller = controller(10, 100, 2);
+        controller.onQuery("j");
+        scheduler.advanceBy(50);
+        controller.onQuery("jo");
+        controller.onQuery("joh");
+        scheduler.advanceBy(99);
+        assertEquals(0, server.requests.size());
+
+        scheduler.advanceBy(1);
+        assertEquals(Collections.singletonList("joh"), server.requests);
+        scheduler.advanceBy(10);
+        assertEquals(Collections.singletonList("joh"), listener.queries);
+    }
+
+    @Test
+    public void testSupersededResponsesAreDropped() {
+        SuggestionController<String> controller = controller(300, 10, 2);
+        controller.onQuery("jo");
+        scheduler.advanceBy(100);
+        controller.onQuery("joh");
+        scheduler.advanceBy(1000);
+
+        assertEquals(2, server.requests.size());
+        assertEquals(Collections.singletonList("joh"), listener.queries);
+        assertEquals(Collections.singletonList("joh result"), listener.suggestions.get(0));
+    }
+
+    @Test
+    public void testConcurrencyCapOnlyKeepsLatestWaitingQuery() {
+        SuggestionController<String> controller = controller(300, 10, 1);
+        controller.onQuery("a");
+        scheduler.advanceBy(100);
+        controller.onQuery("ab");
+        scheduler.advanceBy(50);
+        controller.onQuery("abc");
+        scheduler.advanceBy(50);
+        assertEquals(1, controller.getInFlightCount());
+        assertEquals(Collections.singletonList("a"), server.requests);
+
+        scheduler.advanceBy(1000);
+        assertEquals(2, server.requests.size());
+        assertEquals("abc", server.requests.get(1));
+        assertEquals(Collections.singletonList("abc"), listener.queries);
+    }
+
+    @Test
+    public void testInFlightQueryIsNotSentAgain() {
+        SuggestionController<String> controller = controller(300, 10, 2);
+        controller.onQuery("jo");
+        scheduler.advanceBy(100);
+        controller.onQuery("joh");
+        controller.onQuery("jo");
+        scheduler.advanceBy(1000);
+
+        assertEquals(Collections.singletonList("jo"), server.requests);
+        assertEquals(Collections.singletonList("jo"), listener.queries);
+    }
+
+    @Test
+    public void testCancelDropsResponses() {
+        SuggestionController<String> controller = controller(100, 10, 2);
+        controller.onQuery("jo");
+        scheduler.advanceBy(50);
+        controller.cancel();
+        scheduler.advanceBy(1000);
+
+        assertEquals(Collections.singletonList("jo"), server.requests);
+        assertEquals(0, listener.queries.size());
+    }
+
+    @Test
+    public void testCancelDropsPendingQuery() {
+        SuggestionController<String> controller = controller(100, 10, 2);
+        controller.onQuery("jo");
+        controller.cancel();
+        scheduler.advanceBy(1000);
+
+        assertEquals(0, server.requests.size());
+        assertEquals(0, listener.queries.size());
+    }
+
+    /**
+     * Pretends to be a backend that answers every request after a fixed latency
+     */
+    private static class FakeServer implements SuggestionSource<String> {
+        private final FakeScheduler scheduler;
+        private final long latencyMillis;
+        final List<String> requests = new ArrayList<>();
+
+        FakeServer(FakeScheduler scheduler, long latencyMillis) {
+            this.scheduler = scheduler;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public void requestSuggestions(final String query, final Callback<String> callback) {
+            requests.add(query);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onSuggestions(Collections.singletonList(query + " result"));
+                }
+            }, latencyMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class RecordingListener implements SuggestionController.Listener<String> {
+        final List<String> queries = new ArrayList<>();
+        final List<List<String>> suggestions = new ArrayList<>();
+
+        @Override
+        public void onSuggestions(String query, List<String> results) {
+            queries.add(query);
+            suggestions.add(results);
+        }
+
+        @Override
+        public void onError(String query, Throwable error) {}
+    }
+
+    /**
+     * Runs scheduled tasks on the test thread when the clock is moved forward with
+     * {@link #advanceBy}
+     */
+    private static class FakeScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+        private long now;
+        private long sequence;
+
+        void advanceBy(long millis) {
+            long target = now + millis;
+            while (!tasks.isEmpty() && tasks.peek().time <= target) {
+                Task task = tasks.poll();
+                now = task.time;
+                if (!task.cancelled) {
+                    task.runnable.run();
+                }
+            }
+            now = target;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            Task task = new Task(command, now + unit.toMillis(delay), sequence++);
+            tasks.add(task);
+            return task;
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void shutdown() {}
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+
+        private class Task implements ScheduledFuture<Object> {
+            final Runnable runnable;
+            final long time;
+            final long order;
+            boolean cancelled;
+
+            Task(Runnable runnable, long time, long order) {
+                this.runnable = runnable;
+                this.time = time;
+                this.order = order;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(time - now, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                Task task = (Task) other;
+                if (time != task.time) return Long.compare(time, task.time);
+                return Long.compare(order, task.order);
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                cancelled = true;
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+
+            @Override
+            public boolean isDone() {
+                return cancelled || time <= now;
+            }
+
+            @Override
+            public Object get() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Object get(long timeout, TimeUnit unit) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.tokenautocomplete;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenRegistryTest {
+
+    private static class Span {
+        final String token;
+
+        Span(String token) {
+            this.token = token;
+        }
+    }
+
+    private static TokenRegistry<Span, String> registry() {
+        return new TokenRegistry<>(span -> span.token);
+    }
+
+    @Test
+    public void testTracksTokensInOrder() {
+        TokenRegistry<Span, String> registry = registry();
+        Span first = new Span("a");
+        registry.add(first);
+        registry.add(new Span("b"));
+
+        assertEquals(2, registry.getSize());
+        assertSame(first, registry.get(0));
+        assertEquals("b", registry.tokenAt(1));
+        assertEquals(Arrays.asList("a", "b"), registry.tokens());
+        assertTrue(registry.contains("a"));
+        assertFalse(registry.contains("c"));
+    }
+
+    @Test
+    public void testDuplicateTokensAreCounted() {
+        TokenRegistry<Span, String> registry = registry();
+        Span first = new Span("a");
+        Span second = new Span("a");
+        registry.add(first);
+        registry.add(second);
+
+        assertTrue(registry.remove(second));
+        assertTrue(registry.contains("a"));
+        assertTrue(registry.remove(first));
+        assertFalse(registry.contains("a"));
+        assertFalse(registry.remove(first));
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedLater() {
+        TokenRegistry<Span, String> registry = registry();
+        registry.add(new Span("a"));
+        List<String> tokens = registry.tokens();
+        assertSame(tokens, registry.tokens());
+
+        registry.add(new Span("b"));
+        assertEquals(Collections.singletonList("a"), tokens);
+        assertEquals(Arrays.asList("a", "b"), registry.tokens());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly() {
+        TokenRegistry<Span, String> registry = registry();
+        registry.add(new Span("a"));
+        registry.tokens().add("b");
+    }
+
+    @Test
+    public void testResetReplacesEverything() {
+        TokenRegistry<Span, String> registry = registry();
+        registry.add(new Span("a"));
+        registry.reset(new Span[]{new Span("b"), new Span("c")});
+
+        assertEquals(Arrays.asList("b", "c"), registry.tokens());
+        assertFalse(registry.contains("a"));
+    }
+}
@@ -0,0 +1,43 @@
+package com.tokenautocomplete;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenViewPoolTest {
+
+    @Test
+    public void testViewsAreKeptPerType() {
+        TokenViewPool<Object> pool = new TokenViewPool<>(2);
+        Object chip = new Object();
+        Object avatar = new Object();
+        assertTrue(pool.release(0, chip));
+        assertTrue(pool.release(1, avatar));
+
+        assertNull(pool.acquire(2));
+        assertSame(avatar, pool.acquire(1));
+        assertNull(pool.acquire(1));
+        assertSame(chip, pool.acquire(0));
+    }
+
+    @Test
+    public void testFullPoolDropsViews() {
+        TokenViewPool<Object> pool = new TokenViewPool<>(1);
+        assertTrue(pool.release(0, new Object()));
+        assertFalse(pool.release(0, new Object()));
+        assertEquals(1, pool.size(0));
+    }
+
+    @Test
+    public void testViewIsOnlyKeptOnce() {
+        TokenViewPool<Object> pool = new TokenViewPool<>(4);
+        Object view = new Object();
+        assertTrue(pool.release(0, view));
+        assertFalse(pool.release(0, view));
+        assertEquals(1, pool.size(0));
+    }
+}
@@ -0,0 +1,53 @@
+package com.tokenautocomplete;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopKCollectorTest {
+
+    @Test
+    public void testKeepsHighestScores() {
+        TopKCollector collector = new TopKCollector(3);
+        int[] scores = {1, 5, 2, 5, 0, 3, 4};
+        for (int id = 0; id < scores.length; id++) {
+            collector.offer(id, scores[id]);
+        }
+        assertArrayEquals(new int[]{1, 3, 6}, collector.sortedIds());
+        assertTrue(collector.getOverflowed());
+    }
+
+    @Test
+    public void testTiesPreferEarlierIds() {
+        TopKCollector collector = new TopKCollector(2);
+        for (int id = 9; id >= 0; id--) {
+            collector.offer(id, 1);
+        }
+        assertArrayEquals(new int[]{0, 1}, collector.sortedIds());
+    }
+
+    @Test
+    public void testUnderLimitKeepsEverything() {
+        TopKCollector collector = new TopKCollector(10);
+        collector.offer(4, 0);
+        collector.offer(2, 0);
+        collector.offer(7, 2);
+        assertArrayEquals(new int[]{7, 2, 4}, collector.sortedIds());
+        assertFalse(collector.getOverflowed());
+    }
+
+    @Test
+    public void testMergingCollectors() {
+        TopKCollector first = new TopKCollector(2);
+        first.offer(0, 1);
+        first.offer(1, 3);
+        TopKCollector second = new TopKCollector(2);
+        second.offer(2, 2);
+        second.offer(3, 4);
+        first.offerAll(second);
+        assertArrayEquals(new int[]{3, 1}, first.sortedIds());
+        assertTrue(first.getOverflowed());
+    }
+}
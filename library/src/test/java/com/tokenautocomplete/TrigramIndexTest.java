@@ -0,0 +1,72 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TrigramIndexTest {
+
+    private TrigramIndex index;
+
+    @Before
+    public void setup() {
+        List<List<String>> keys = Arrays.asList(
+                Arrays.asList("john", "johnny@example.com"),
+                Collections.singletonList("joan"),
+                null,
+                Arrays.asList("marshall", "mgod@example.com"),
+                Collections.singletonList("jonathan"));
+        index = TrigramIndex.build(keys);
+    }
+
+    @Test
+    public void testCandidatesIncludeMisspellings() {
+        assertArrayEquals(new int[]{4}, index.find("jonahtan", 1));
+        assertArrayEquals(new int[]{3}, index.find("marhsall", 1));
+    }
+
+    @Test
+    public void testShortMasksCantBeLookedUp() {
+        assertNull(index.find("jhon", 1));
+        assertNull(index.find("j", 0));
+        assertEquals(0, TrigramIndex.maxIndexedEdits(5));
+        assertEquals(1, TrigramIndex.maxIndexedEdits(6));
+        assertEquals(2, TrigramIndex.maxIndexedEdits(10));
+    }
+
+    @Test
+    public void testRepeatedSearchesCountFromZero() {
+        assertArrayEquals(new int[]{4}, index.find("jonahtan", 1));
+        assertArrayEquals(new int[]{4}, index.find("jonahtan", 1));
+        assertArrayEquals(new int[]{0, 1, 4}, index.find("jo", 0));
+    }
+
+    @Test
+    public void testCandidatesIncludeExactPrefixes() {
+        assertArrayEquals(new int[]{3}, index.find("marsh", 0));
+        assertArrayEquals(new int[]{0, 1, 4}, index.find("jo", 0));
+    }
+
+    @Test
+    public void testNoCandidates() {
+        assertArrayEquals(new int[0], index.find("zedekiah", 1));
+    }
+
+    @Test
+    public void testPrefixDistance() {
+        assertEquals(0, TrigramIndex.prefixDistance("jo", "john", 1));
+        assertEquals(1, TrigramIndex.prefixDistance("jhon", "john smith", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("jonh", "john", 2));
+        assertEquals(2, TrigramIndex.prefixDistance("marshal", "marsh", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("mrashall", "marshall", 1));
+        assertEquals(2, TrigramIndex.prefixDistance("xyz", "john", 1));
+        assertEquals(2, TrigramIndex.prefixDistance("jxxn", "john", 1));
+    }
+}
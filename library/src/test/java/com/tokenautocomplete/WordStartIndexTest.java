@@ -0,0 +1,67 @@
+package com.tokenautocomplete;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WordStartIndexTest {
+
+    private WordStartIndex index;
+
+    @Before
+    public void setup() {
+        List<List<String>> keys = Arrays.asList(
+                Arrays.asList("anne smith", "anne@example.com"),
+                Collections.singletonList("margaret smith"),
+                null,
+                Arrays.asList("annabel lee", "alee@example.com"),
+                Collections.singletonList("sam anderson"));
+        index = WordStartIndex.build(keys);
+    }
+
+    @Test
+    public void testSingleWord() {
+        assertArrayEquals(new int[]{0, 1}, index.find(Collections.singletonList("smi")));
+        assertArrayEquals(new int[]{0, 3, 4}, index.find(Collections.singletonList("an")));
+    }
+
+    @Test
+    public void testWordsAreIntersected() {
+        assertArrayEquals(new int[]{0}, index.find(Arrays.asList("ann", "sm")));
+        assertArrayEquals(new int[]{4}, index.find(Arrays.asList("sam", "and")));
+        assertArrayEquals(new int[]{3}, index.find(Arrays.asList("example", "lee")));
+        assertArrayEquals(new int[0], index.find(Arrays.asList("margaret", "lee")));
+        assertArrayEquals(new int[0], index.find(Arrays.asList("zed", "ann")));
+    }
+
+    @Test
+    public void testLongWordsReturnCandidatesByPrefix() {
+        //Only the first letters are indexed, so "annex" finds the objects with "ann" words
+        assertArrayEquals(new int[]{0, 3}, index.find(Collections.singletonList("annex")));
+        KeyStore store = KeyStore.of(Collections.singletonList(Collections.singletonList("anne smith")));
+        assertFalse(store.startsWord(0, "annex"));
+        assertTrue(store.startsWord(0, "smit"));
+    }
+
+    @Test
+    public void testWords() {
+        assertEquals(Arrays.asList("ann", "sm"), WordStartIndex.words(" ann, sm"));
+        assertEquals(Arrays.asList("anne", "example", "com"), WordStartIndex.words("anne@example.com"));
+        assertEquals(Collections.emptyList(), WordStartIndex.words("@ "));
+    }
+
+    @Test
+    public void testUnion() {
+        assertArrayEquals(new int[]{1, 2, 3, 5, 8},
+                IntList.union(new int[]{1, 3, 5}, new int[]{2, 3, 8}));
+        assertArrayEquals(new int[]{4}, IntList.union(new int[0], new int[]{4}));
+    }
+}